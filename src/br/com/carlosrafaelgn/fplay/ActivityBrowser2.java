@@ -47,7 +47,6 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.Locale;
 
 import br.com.carlosrafaelgn.fplay.activity.ClientActivity;
@@ -56,6 +55,7 @@ import br.com.carlosrafaelgn.fplay.list.FileFetcher;
 import br.com.carlosrafaelgn.fplay.list.FileList;
 import br.com.carlosrafaelgn.fplay.list.FileSt;
 import br.com.carlosrafaelgn.fplay.list.Song;
+import br.com.carlosrafaelgn.fplay.list.SongList;
 import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.ui.BackgroundActivityMonitor;
 import br.com.carlosrafaelgn.fplay.ui.BgButton;
@@ -201,13 +201,12 @@ public final class ActivityBrowser2 extends ActivityBrowserView implements View.
 			}
 			Player.songs.addingStarted();
 			BackgroundActivityMonitor.start(getHostActivity());
+			final SongList.Adder adder = Player.songs.createAdder(play, addingFolder);
 			(new Thread("Checked File Adder Thread") {
 				@Override
 				public void run() {
-					boolean addingFolder = false;
 					try {
 						Throwable firstException = null;
-						final ArrayList<FileSt> filesToAdd = new ArrayList<>(256);
 						for (int i = 0; i < fs.length; i++) {
 							if (Player.state >= Player.STATE_TERMINATING) {
 								Player.songs.addingEnded();
@@ -217,32 +216,20 @@ public final class ActivityBrowser2 extends ActivityBrowserView implements View.
 							if (file == null)
 								continue;
 							if (!file.isDirectory) {
-								filesToAdd.add(file);
-								if (!addingFolder && filesToAdd.size() > 1)
-									addingFolder = true;
+								adder.addFile(file);
 							} else {
-								addingFolder = true;
-								final FileFetcher ff = FileFetcher.fetchFilesInThisThread(file.path, null, false, true, true, false, false);
-								if (ff.getThrowedException() == null) {
-									if (ff.count <= 0)
-										continue;
-									filesToAdd.ensureCapacity(filesToAdd.size() + ff.count);
-									for (int j = 0; j < ff.count; j++)
-										filesToAdd.add(ff.files[j]);
-								} else {
-									if (firstException == null)
-										firstException = ff.getThrowedException();
-								}
+								//the songs are added as soon as each directory has been fetched,
+								//instead of waiting for the entire tree to be fetched
+								final FileFetcher ff = FileFetcher.fetchFilesInThisThread(file.path, null, adder, false, true, true, false, false, true);
+								if (ff.getThrowedException() != null && firstException == null)
+									firstException = ff.getThrowedException();
 							}
 						}
-						if (filesToAdd.size() <= 0) {
-							if (firstException != null)
-								Player.songs.onFilesFetched(null, firstException);
-							else
-								Player.songs.addingEnded();
-						} else {
-							Player.songs.addFiles(null, filesToAdd.iterator(), filesToAdd.size(), play, addingFolder, false);
+						if (adder.getCount() <= 0 && firstException != null) {
+							Player.songs.onFilesFetched(null, firstException);
+							return;
 						}
+						adder.finish();
 					} catch (Throwable ex) {
 						Player.songs.addingEnded();
 					}
@@ -567,7 +567,8 @@ public final class ActivityEffects extends ClientActivity implements Runnable, V
 		} else {
 			final SerializableMap opts = new SerializableMap(Equalizer.getBandCount());
 			Equalizer.serializePreset(opts);
-			opts.serialize(getApplication(), path);
+			//presets can be shared with older versions, so they keep the legacy layout
+			opts.serializeLegacy(getApplication(), path);
 		}
 	}
 	
@@ -393,7 +393,7 @@ public final class ActivityMain extends ActivityItemView implements Timer.TimerH
 			if (lblAlbum != null)
 				lblAlbum.setText((currentSong == null) ? "-" : currentSong.album);
 			if (lblLength != null)
-				lblLength.setText((currentSong == null) ? "-" : currentSong.length);
+				lblLength.setText((currentSong == null) ? "-" : currentSong.getLength());
 		} else if (preparingHasChanged) {
 			if (barSeek != null) {
 				if (Player.isPreparing() && !barSeek.isTracking()) {
@@ -55,6 +55,7 @@ import android.widget.TextView;
 
 import br.com.carlosrafaelgn.fplay.activity.ClientActivity;
 import br.com.carlosrafaelgn.fplay.activity.MainHandler;
+import br.com.carlosrafaelgn.fplay.list.MediaLibrary;
 import br.com.carlosrafaelgn.fplay.list.Song;
 import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.ui.BackgroundActivityMonitor;
@@ -81,7 +82,7 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 	private TextView lblTitle;
 	private RelativeLayout panelControls;
 	private LinearLayout panelSettings;
-	private SettingView optLoadCurrentTheme, optUseAlternateTypeface, optAutoTurnOff, optAutoIdleTurnOff, optKeepScreenOn, optTheme, optFlat, optBorders, optExpandSeekBar, optVolumeControlType, optDoNotAttenuateVolume, optIsDividerVisible, optIsVerticalMarginLarge, optExtraSpacing, optForcedLocale, optPlacePlaylistToTheRight, optScrollBarToTheLeft, optScrollBarSongList, optScrollBarBrowser, optWidgetTransparentBg, optWidgetTextColor, optWidgetIconColor, optHandleCallKey, optPlayWhenHeadsetPlugged, optBlockBackKey, optBackKeyAlwaysReturnsToPlayerWhenBrowsing, optWrapAroundList, optDoubleClickMode, optMarqueeTitle, optPrepareNext, optClearListWhenPlayingFolders, optGoBackWhenPlayingFolders, optExtraInfoMode, optForceOrientation, optTransition, optNotFullscreen, optFadeInFocus, optFadeInPause, optFadeInOther, optBtMessage, optBtConnect, optBtStart, optBtFramesToSkip, optBtSize, optBtSpeed, lastMenuView;
+	private SettingView optLoadCurrentTheme, optUseAlternateTypeface, optAutoTurnOff, optAutoIdleTurnOff, optKeepScreenOn, optTheme, optFlat, optBorders, optExpandSeekBar, optVolumeControlType, optDoNotAttenuateVolume, optIsDividerVisible, optIsVerticalMarginLarge, optExtraSpacing, optForcedLocale, optPlacePlaylistToTheRight, optScrollBarToTheLeft, optScrollBarSongList, optScrollBarBrowser, optWidgetTransparentBg, optWidgetTextColor, optWidgetIconColor, optHandleCallKey, optPlayWhenHeadsetPlugged, optBlockBackKey, optBackKeyAlwaysReturnsToPlayerWhenBrowsing, optWrapAroundList, optDoubleClickMode, optMarqueeTitle, optPrepareNext, optClearListWhenPlayingFolders, optGoBackWhenPlayingFolders, optIndexMediaLibrary, optExtraInfoMode, optForceOrientation, optTransition, optNotFullscreen, optFadeInFocus, optFadeInPause, optFadeInOther, optBtMessage, optBtConnect, optBtStart, optBtFramesToSkip, optBtSize, optBtSpeed, lastMenuView;
 	private SettingView[] colorViews;
 	private int lastColorView, currentHeader, btMessageText, btErrorMessage, btConnectText, btStartText;
 	private TextView[] headers;
@@ -857,6 +858,8 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 			optClearListWhenPlayingFolders.setOnClickListener(this);
 			optGoBackWhenPlayingFolders = new SettingView(ctx, UI.ICON_SETTINGS, getText(R.string.opt_go_back_when_playing_folders).toString(), null, true, Player.goBackWhenPlayingFolders, false);
 			optGoBackWhenPlayingFolders.setOnClickListener(this);
+			optIndexMediaLibrary = new SettingView(ctx, UI.ICON_SEARCH, getText(R.string.opt_index_media_library).toString(), null, true, Player.indexMediaLibrary, false);
+			optIndexMediaLibrary.setOnClickListener(this);
 			optExtraInfoMode = new SettingView(ctx, UI.ICON_SETTINGS, getText(R.string.secondary_line_of_text).toString(), getExtraInfoModeString(Song.extraInfoMode), false, false, false);
 			optExtraInfoMode.setOnClickListener(this);
 			optForceOrientation = new SettingView(ctx, UI.ICON_ORIENTATION, getText(R.string.opt_force_orientation).toString(), getOrientationString(), false, false, false);
@@ -926,6 +929,7 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 			panelSettings.addView(optDoubleClickMode);
 			panelSettings.addView(optMarqueeTitle);
 			panelSettings.addView(optPrepareNext);
+			panelSettings.addView(optIndexMediaLibrary);
 			lblTitle.setVisibility(View.GONE);
 			currentHeader = -1;
 		}
@@ -1005,6 +1009,7 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 		optPrepareNext = null;
 		optClearListWhenPlayingFolders = null;
 		optGoBackWhenPlayingFolders = null;
+		optIndexMediaLibrary = null;
 		optExtraInfoMode = null;
 		optForceOrientation = null;
 		optTransition = null;
@@ -1186,6 +1191,12 @@ public final class ActivitySettings extends ClientActivity implements Player.Pla
 			UI.doubleClickMode = optDoubleClickMode.isChecked();
 		} else if (view == optDoNotAttenuateVolume) {
 			Player.doNotAttenuateVolume = optDoNotAttenuateVolume.isChecked();
+		} else if (view == optIndexMediaLibrary) {
+			Player.indexMediaLibrary = optIndexMediaLibrary.isChecked();
+			if (Player.indexMediaLibrary)
+				MediaLibrary.startIndexing();
+			else
+				MediaLibrary.clear(getApplication());
 		} else if (view == optMarqueeTitle) {
 			UI.marqueeTitle = optMarqueeTitle.isChecked();
 		} else if (view == optPrepareNext) {
@@ -37,6 +37,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.view.KeyEvent;
 
+import br.com.carlosrafaelgn.fplay.list.MediaLibrary;
 import br.com.carlosrafaelgn.fplay.playback.Player;
 
 //
@@ -81,6 +82,9 @@ public final class ExternalReceiver extends BroadcastReceiver {
 				Player.registerMediaButtonEventReceiver();
 			Player.audioSinkChanged(false);
 			break;
+		case "android.intent.action.ACTION_POWER_CONNECTED":
+			MediaLibrary.startIndexing();
+			break;
 		}
 		if (isOrderedBroadcast())
 			abortBroadcast();
@@ -83,11 +83,15 @@ public abstract class BaseList<E extends BaseItem> extends BaseAdapter {
 	
 	protected void removingItems(int position, int count) { }
 	
+	protected void movingItems(int from, int count, int to) { }
+	
 	protected void clearingItems() { }
 	
 	private void setCapacity(int capacity) {
-		if (capacity >= count && (capacity > items.length || capacity <= (items.length - (2 * LIST_DELTA))))
-			items = Arrays.copyOf(items, capacity + LIST_DELTA);
+		//grow (and shrink) geometrically, otherwise adding songs one at a time to a large list
+		//would copy the entire array every LIST_DELTA songs
+		if (capacity >= count && (capacity > items.length || (capacity + LIST_DELTA) < (items.length >> 1)))
+			items = Arrays.copyOf(items, capacity + (capacity >> 1) + LIST_DELTA);
 	}
 	
 	public final void add(E item, int position) {
@@ -255,6 +259,8 @@ public abstract class BaseList<E extends BaseItem> extends BaseAdapter {
 		Object[] tmp = new Object[count];
 		System.arraycopy(items, from, tmp, 0, count);
 		//synchronized (currentAndCountMutex) {
+			movingItems(from, count, to);
+			
 			modificationVersion++;
 			final int delta;
 			if (to < from) {
@@ -0,0 +1,280 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import br.com.carlosrafaelgn.fplay.playback.Player;
+import br.com.carlosrafaelgn.fplay.util.Serializer;
+import br.com.carlosrafaelgn.fplay.util.SerializerInputStream;
+import br.com.carlosrafaelgn.fplay.util.SerializerOutputStream;
+import br.com.carlosrafaelgn.fplay.util.StorageWriter;
+
+//
+//Keeps the (already filtered and sorted) contents of the directories most recently
+//listed by FileFetcher, so that an unmodified directory can be listed with a single
+//call to lastModified(), instead of one or more stats per file
+//
+//As the contents are filtered, the cache is discarded whenever the set of supported types
+//changes (see setSupportedTypesSignature)
+//
+//All methods of this class can be called from any thread
+//
+public final class DirectoryCache {
+	private static final class Job extends StorageWriter.Job {
+		private final String[] paths;
+		private final Snapshot[] snapshots;
+		private final int supportedTypesSignature;
+
+		public Job(String[] paths, Snapshot[] snapshots, int supportedTypesSignature) {
+			super(FILE_NAME);
+			this.paths = paths;
+			this.snapshots = snapshots;
+			this.supportedTypesSignature = supportedTypesSignature;
+		}
+
+		@Override
+		protected void write(Context context) throws IOException {
+			FileOutputStream fs = null;
+			BufferedOutputStream bs = null;
+			boolean finished = false;
+			try {
+				fs = StorageWriter.startAtomicWrite(context, FILE_NAME);
+				bs = new SerializerOutputStream(fs, 4096);
+				Serializer.serializeInt(bs, VERSION);
+				Serializer.serializeInt(bs, supportedTypesSignature);
+				Serializer.serializeInt(bs, paths.length);
+				for (int i = 0; i < paths.length; i++) {
+					final Snapshot snapshot = snapshots[i];
+					final String[] names = snapshot.names;
+					Serializer.serializeString(bs, paths[i]);
+					Serializer.serializeLong(bs, snapshot.lastModified);
+					Serializer.serializeInt(bs, snapshot.directoryCount);
+					Serializer.serializeInt(bs, names.length);
+					for (int j = 0; j < names.length; j++)
+						Serializer.serializeString(bs, names[j]);
+				}
+				bs.flush();
+				StorageWriter.finishAtomicWrite(context, FILE_NAME, fs);
+				finished = true;
+			} finally {
+				try {
+					if (bs != null)
+						bs.close();
+				} catch (Throwable ex) {
+					ex.printStackTrace();
+				}
+				try {
+					if (fs != null)
+						fs.close();
+				} catch (Throwable ex) {
+					ex.printStackTrace();
+				}
+				if (!finished) {
+					StorageWriter.abortAtomicWrite(context, FILE_NAME);
+					//try again next time
+					synchronized (DirectoryCache.class) {
+						modified = true;
+					}
+				}
+			}
+		}
+	}
+
+	private static final class Snapshot {
+		public final long lastModified;
+		public final String[] names;
+		public final int directoryCount;
+
+		public Snapshot(long lastModified, String[] names, int directoryCount) {
+			this.lastModified = lastModified;
+			this.names = names;
+			this.directoryCount = directoryCount;
+		}
+	}
+
+	private static final int VERSION = 0x0101;
+	private static final int MAX_ENTRIES = 32768;
+	//some file systems store lastModified with a resolution of 1 or 2 seconds, so a directory
+	//modified during the last few seconds could still be modified without changing lastModified
+	private static final long MIN_AGE_MS = 3000;
+	private static final String FILE_NAME = "_DirCache";
+	private static LinkedHashMap<String, Snapshot> snapshots;
+	private static int entryCount, supportedTypesSignature;
+	private static boolean loaded, modified;
+
+	//called by FileFetcher when it is initialized, and whenever a supported type is added
+	public static synchronized void setSupportedTypesSignature(int signature) {
+		if (loaded && supportedTypesSignature != signature) {
+			snapshots.clear();
+			entryCount = 0;
+			modified = true;
+		}
+		supportedTypesSignature = signature;
+	}
+
+	private static String makePrefix(String path) {
+		return ((path.charAt(path.length() - 1) == '/') ? path : (path + "/"));
+	}
+
+	public static synchronized FileSt[] get(String path, long lastModified) {
+		if (lastModified == 0 || (!loaded && !load()))
+			return null;
+		final Snapshot snapshot = snapshots.get(path);
+		if (snapshot == null)
+			return null;
+		if (snapshot.lastModified != lastModified) {
+			snapshots.remove(path);
+			entryCount -= snapshot.names.length;
+			modified = true;
+			return null;
+		}
+		final String[] names = snapshot.names;
+		final String prefix = makePrefix(path);
+		final FileSt[] files = new FileSt[names.length];
+		for (int i = 0; i < names.length; i++)
+			files[i] = new FileSt(prefix + names[i], names[i], i < snapshot.directoryCount);
+		return files;
+	}
+
+	public static synchronized void put(String path, long lastModified, FileSt[] files, int offset, int count) {
+		if (lastModified == 0 || count > MAX_ENTRIES || (System.currentTimeMillis() - lastModified) < MIN_AGE_MS || (!loaded && !load()))
+			return;
+		final String[] names = new String[count];
+		int directoryCount = 0;
+		for (int i = 0; i < count; i++) {
+			final FileSt file = files[offset + i];
+			names[i] = file.name;
+			//the files are sorted, with all directories coming first
+			if (file.isDirectory)
+				directoryCount = i + 1;
+		}
+		final Snapshot previous = snapshots.put(path, new Snapshot(lastModified, names, directoryCount));
+		if (previous != null)
+			entryCount -= previous.names.length;
+		entryCount += count;
+		modified = true;
+		while (entryCount > MAX_ENTRIES && !snapshots.isEmpty()) {
+			//the eldest entry is the first one returned by the iterator (see BitmapLruCache)
+			final Map.Entry<String, Snapshot> eldest = snapshots.entrySet().iterator().next();
+			snapshots.remove(eldest.getKey());
+			entryCount -= eldest.getValue().names.length;
+		}
+	}
+
+	//the cache is not considered loaded until the service exists (otherwise, the snapshots
+	//added before that would overwrite the entire file the next time it is serialized)
+	private static boolean load() {
+		final Context context = Player.getService();
+		if (context == null)
+			return false;
+		loaded = true;
+		snapshots = new LinkedHashMap<>(64, 0.75f, true);
+		entryCount = 0;
+		FileInputStream fs = null;
+		BufferedInputStream bs = null;
+		try {
+			fs = context.openFileInput(FILE_NAME);
+			bs = new SerializerInputStream(fs, 4096);
+			//the names cached by an older version, or by a version supporting other types of
+			//files, are simply discarded
+			if (Serializer.deserializeInt(bs) != VERSION || Serializer.deserializeInt(bs) != supportedTypesSignature) {
+				modified = true;
+				return true;
+			}
+			int count = Serializer.deserializeInt(bs);
+			while (count > 0) {
+				final String path = Serializer.deserializeString(bs);
+				final long lastModified = Serializer.deserializeLong(bs);
+				final int directoryCount = Serializer.deserializeInt(bs);
+				final int nameCount = Serializer.deserializeInt(bs);
+				if (path == null || nameCount < 0 || directoryCount < 0 || directoryCount > nameCount || (entryCount + nameCount) > MAX_ENTRIES)
+					break;
+				final String[] names = new String[nameCount];
+				for (int i = 0; i < nameCount; i++) {
+					if ((names[i] = Serializer.deserializeString(bs)) == null)
+						throw new IOException();
+				}
+				snapshots.put(path, new Snapshot(lastModified, names, directoryCount));
+				entryCount += nameCount;
+				count--;
+			}
+		} catch (Throwable ex) {
+			//just start all over again
+			snapshots.clear();
+			entryCount = 0;
+			if (!(ex instanceof FileNotFoundException))
+				ex.printStackTrace();
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+			try {
+				if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+		return true;
+	}
+
+	//the snapshots are immutable, so the file is written in background, without holding the lock
+	public static synchronized void serialize(Context context) {
+		if (!loaded || !modified)
+			return;
+		final String[] paths = new String[snapshots.size()];
+		final Snapshot[] snapshots = new Snapshot[paths.length];
+		int i = 0;
+		//from the eldest to the most recently used, in order to preserve the order next time
+		for (Map.Entry<String, Snapshot> entry : DirectoryCache.snapshots.entrySet()) {
+			paths[i] = entry.getKey();
+			snapshots[i] = entry.getValue();
+			i++;
+		}
+		modified = false;
+		StorageWriter.post(context, new Job(paths, snapshots, supportedTypesSignature));
+	}
+}
@@ -41,28 +41,34 @@ import android.provider.MediaStore;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Locale;
 
 import br.com.carlosrafaelgn.fplay.R;
 import br.com.carlosrafaelgn.fplay.activity.MainHandler;
 import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter;
+import br.com.carlosrafaelgn.fplay.util.ExtensionSet;
 
 //
 //Supported Media Formats
 //http://developer.android.com/guide/appendix/media-formats.html
 //
-public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>, FileFilter {
+public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt> {
 	public interface Listener {
 		void onFilesFetched(FileFetcher fetcher, Throwable e);
 	}
+
+	//Called from the fetcher's thread, as soon as the files of each directory are known,
+	//always in the same order they end up inside files (the array must not be kept)
+	public interface BatchListener {
+		void onFilesFetchedBatch(FileFetcher fetcher, FileSt[] files, int offset, int count);
+	}
 	
 	private static final class RootItem {
 		public final String fs_specLC, pathLC, path;
@@ -88,8 +94,28 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 		}
 	}
 	
+	private static final class Directory {
+		public final String path;
+		public FileSt[] files;
+		public Directory[] subdirectories;
+		public boolean done;
+
+		public Directory(String path) {
+			this.path = path;
+		}
+	}
+
 	private static final int LIST_DELTA = 32;
-	private static final HashSet<String> supportedTypes;
+	private static final int MAX_WALKER_THREADS = 4;
+	private static final ExtensionSet supportedTypes, otherTypes;
+	private static final ArraySorter.Comparer<FileSt> directoriesFirstComparer = new ArraySorter.Comparer<FileSt>() {
+		@Override
+		public int compare(FileSt a, FileSt b) {
+			if (a.isDirectory == b.isDirectory)
+				return a.getSortKey().compareTo(b.getSortKey());
+			return (a.isDirectory ? -1 : 1);
+		}
+	};
 	public String unknownArtist;
 	public final String path;
 	public FileSt[] files;
@@ -99,12 +125,17 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 	public final boolean playAfterFetching, isInTouchMode, createSections;
 	private Throwable notifyE;
 	private Listener listener;
-	private boolean recursive;
+	private BatchListener batchListener;
+	private boolean recursive, useDirectoryCache;
 	private final boolean notifyFromMain, recursiveIfFirstEmpty;
 	private volatile boolean cancelled;
+	private final Object walkerSync;
+	private ArrayDeque<Directory> pendingDirectories;
+	private int unfinishedDirectories;
+	private Throwable walkerException;
 	
 	static {
-		supportedTypes = new HashSet<>(16);
+		supportedTypes = new ExtensionSet();
 		supportedTypes.add(".3gp");
 		supportedTypes.add(".3ga");
 		supportedTypes.add(".mp4");
@@ -121,14 +152,37 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 		supportedTypes.add(".imy");
 		supportedTypes.add(".wav");
 		supportedTypes.add(".mkv");
+		DirectoryCache.setSupportedTypesSignature(supportedTypes.getSignature());
+		//other types of files usually found among songs (no one names a directory like these)
+		otherTypes = new ExtensionSet();
+		otherTypes.add(".jpg");
+		otherTypes.add(".jpeg");
+		otherTypes.add(".png");
+		otherTypes.add(".gif");
+		otherTypes.add(".bmp");
+		otherTypes.add(".webp");
+		otherTypes.add(".txt");
+		otherTypes.add(".nfo");
+		otherTypes.add(".log");
+		otherTypes.add(".cue");
+		otherTypes.add(".m3u");
+		otherTypes.add(".m3u8");
+		otherTypes.add(".pls");
+		otherTypes.add(".lrc");
+		otherTypes.add(".sfv");
+		otherTypes.add(".md5");
+		otherTypes.add(".pdf");
+		otherTypes.add(".db");
+		otherTypes.add(".ini");
+		otherTypes.add(".nomedia");
 	}
 
-	@Override
-	public boolean accept(File file) {
-		if (file.isDirectory()) return true;
-		final String name = file.getName();
-		final int i = name.lastIndexOf('.');
-		return ((i >= 0) && supportedTypes.contains(name.substring(i).toLowerCase(Locale.US)));
+	//makes files with the given extension (with or without the leading dot) be listed from
+	//now on (safe to call while other threads are fetching files)
+	public static void addSupportedType(String extension) {
+		supportedTypes.add(extension);
+		//directories cached before this call do not contain files of the new type
+		DirectoryCache.setSupportedTypesSignature(supportedTypes.getSignature());
 	}
 
 	public static FileFetcher fetchFiles(String path, Listener listener, boolean notifyFromMain, boolean recursive, boolean isInTouchMode, boolean createSections) {
@@ -143,8 +197,13 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 		return f;
 	}
 	
-	public static FileFetcher fetchFilesInThisThread(String path, Listener listener, boolean notifyFromMain, boolean recursive, boolean recursiveIfFirstEmpty, boolean playAfterFetching, boolean createSections) {
+	//useDirectoryCache should be false while walking large amounts of directories that the
+	//user is not going to browse (otherwise they would evict the user's directories from
+	//the cache)
+	public static FileFetcher fetchFilesInThisThread(String path, Listener listener, BatchListener batchListener, boolean notifyFromMain, boolean recursive, boolean recursiveIfFirstEmpty, boolean playAfterFetching, boolean createSections, boolean useDirectoryCache) {
 		FileFetcher f = new FileFetcher(path, listener, notifyFromMain, recursive, recursiveIfFirstEmpty, playAfterFetching, false, createSections);
+		f.batchListener = batchListener;
+		f.useDirectoryCache = useDirectoryCache;
 		f.run();
 		return f;
 	}
@@ -160,6 +219,8 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 		this.isInTouchMode = isInTouchMode;
 		this.createSections = createSections;
 		this.count = 0;
+		this.walkerSync = new Object();
+		this.useDirectoryCache = true;
 	}
 	
 	private void fetch() {
@@ -479,7 +540,7 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 					return -1;
 				else if (b.name == unknownArtist)
 					return 1;
-				return a.name.compareToIgnoreCase(b.name);
+				return a.getSortKey().compareTo(b.getSortKey());
 			}
 		});
 		
@@ -572,7 +633,7 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 			public int compare(FileSt a, FileSt b) {
 				if (a.specialType != b.specialType)
 					return a.specialType - b.specialType;
-				return a.name.compareToIgnoreCase(b.name);
+				return a.getSortKey().compareTo(b.getSortKey());
 			}
 		});
 		for (int i = files.length - 1; i >= 0; i--)
@@ -714,7 +775,7 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 			public int compare(FileSt a, FileSt b) {
 				if (a.specialType != b.specialType)
 					return a.specialType - b.specialType;
-				return a.name.compareToIgnoreCase(b.name);
+				return a.getSortKey().compareTo(b.getSortKey());
 			}
 		});
 		for (int i = files.length - 1; i >= 0; i--)
@@ -723,50 +784,230 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 		tmp.clear();
 	}*/
 	
-	private void fetchFiles(String path, boolean first) {
+	private void fetchFiles(String path) throws Throwable {
 		if (cancelled || Player.state >= Player.STATE_TERMINATING) {
 			count = 0;
 			return;
 		}
 		int i;
-		File root = new File((path.charAt(path.length() - 1) == File.separatorChar) ? path : (path + File.separator));
-		File[] files = root.listFiles(this);
-		boolean filesAdded = false;
+		final FileSt[] files = listDirectory((new File((path.charAt(path.length() - 1) == File.separatorChar) ? path : (path + File.separator))).getAbsolutePath(), useDirectoryCache, this);
 		if (files == null || files.length == 0) {
 			if (this.files == null)
 				this.files = new FileSt[0];
 			return;
 		}
-		final int l = count;
-		ensureCapacity(count + files.length);
-		for (i = 0; i < files.length; i++) {
-			if (cancelled || Player.state >= Player.STATE_TERMINATING) {
-				count = 0;
-				return;
-			}
-			this.files[count] = new FileSt(files[i]);
-			if (!this.files[count].isDirectory)
-				filesAdded = true;
-			count++;
-			files[i] = null;
-		}
-		files = null;
-		final int e = count;
-		ArraySorter.sort(this.files, l, e - l, this);
-		if (first && !filesAdded && recursiveIfFirstEmpty)
+		this.files = files;
+		count = files.length;
+		final boolean filesAdded = !files[count - 1].isDirectory;
+		if (batchListener != null)
+			batchListener.onFilesFetchedBatch(this, this.files, 0, count);
+		if (!filesAdded && recursiveIfFirstEmpty)
 			recursive = true;
 		if (!recursive)
 			return;
-		for (i = l; i < e; i++) {
-			if (cancelled || Player.state >= Player.STATE_TERMINATING) {
-				count = 0;
-				return;
+		//directories always come first after sorting
+		int directoryCount = 0;
+		while (directoryCount < count && this.files[directoryCount].isDirectory)
+			directoryCount++;
+		if (directoryCount == 0)
+			return;
+		final Directory[] directories = new Directory[directoryCount];
+		for (i = 0; i < directoryCount; i++)
+			directories[i] = new Directory(this.files[i].path);
+		walkDirectories(directories);
+		if (cancelled || Player.state >= Player.STATE_TERMINATING)
+			count = 0;
+	}
+
+	private void walkDirectories(Directory[] directories) throws Throwable {
+		pendingDirectories = new ArrayDeque<>(64);
+		for (int i = directories.length - 1; i >= 0; i--)
+			pendingDirectories.addLast(directories[i]);
+		unfinishedDirectories = directories.length;
+		walkerException = null;
+		//listing directories is mostly bound by I/O latency, so even on single core devices it
+		//pays off to have at least two threads waiting for the storage at the same time
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		if (threadCount < 2)
+			threadCount = 2;
+		else if (threadCount > MAX_WALKER_THREADS)
+			threadCount = MAX_WALKER_THREADS;
+		if (threadCount > directories.length)
+			threadCount = directories.length;
+		//this thread does not walk, it only collects the results, in order, as they arrive
+		final Thread[] threads = new Thread[threadCount];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread("File Fetcher Walker Thread") {
+				@Override
+				public void run() {
+					walk();
+				}
+			};
+			threads[i].start();
+		}
+		Throwable exception = null;
+		try {
+			collectDirectories(directories);
+		} catch (Throwable ex) {
+			exception = ex;
+			synchronized (walkerSync) {
+				if (walkerException == null)
+					walkerException = ex;
+				walkerSync.notifyAll();
 			}
-			if (this.files[i].isDirectory)
-				fetchFiles(this.files[i].path, false);
 		}
+		for (int i = 0; i < threads.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException ex) {
+				ex.printStackTrace();
+			}
+		}
+		pendingDirectories = null;
+		if (walkerException != null) {
+			if (exception == null)
+				exception = walkerException;
+			walkerException = null;
+		}
+		if (exception != null)
+			throw exception;
 	}
-	
+
+	private void walk() {
+		for (;;) {
+			Directory directory;
+			synchronized (walkerSync) {
+				//depth-first, just like the old single-threaded version, in order to keep the
+				//amount of directories waiting to be listed as small as possible
+				while ((directory = pendingDirectories.pollLast()) == null && unfinishedDirectories > 0 && walkerException == null && !cancelled && Player.state < Player.STATE_TERMINATING) {
+					try {
+						walkerSync.wait();
+					} catch (InterruptedException ex) {
+						ex.printStackTrace();
+					}
+				}
+				if (directory == null || walkerException != null || cancelled || Player.state >= Player.STATE_TERMINATING) {
+					walkerSync.notifyAll();
+					return;
+				}
+			}
+			Throwable exception = null;
+			try {
+				fetchDirectory(directory);
+			} catch (Throwable ex) {
+				exception = ex;
+			}
+			synchronized (walkerSync) {
+				if (exception != null && walkerException == null)
+					walkerException = exception;
+				final Directory[] subdirectories = directory.subdirectories;
+				if (subdirectories != null) {
+					for (int i = subdirectories.length - 1; i >= 0; i--)
+						pendingDirectories.addLast(subdirectories[i]);
+					unfinishedDirectories += subdirectories.length;
+				}
+				unfinishedDirectories--;
+				directory.done = true;
+				walkerSync.notifyAll();
+			}
+		}
+	}
+
+	//fetcher is only used to check whether the listing has been cancelled, and can be null
+	static FileSt[] listDirectory(String path, boolean useDirectoryCache, FileFetcher fetcher) {
+		final File directory = new File(path);
+		final long lastModified = directory.lastModified();
+		FileSt[] fileSts;
+		if (useDirectoryCache && (fileSts = DirectoryCache.get(path, lastModified)) != null)
+			return fileSts;
+		//list() reads the directory once, returning only the names, which allows us to filter
+		//out unsupported files before creating any objects for them, and to stat only the
+		//entries that can pass the filter, once (listFiles(FileFilter) + new FileSt(File)
+		//used to stat each entry twice)
+		final String[] names = directory.list();
+		if (names == null || names.length == 0)
+			return null;
+		final String prefix = ((path.charAt(path.length() - 1) == File.separatorChar) ? path : (path + File.separator));
+		int count = 0;
+		fileSts = new FileSt[names.length];
+		for (int i = 0; i < names.length; i++) {
+			if (fetcher != null && (fetcher.cancelled || Player.state >= Player.STATE_TERMINATING))
+				return null;
+			final String name = names[i];
+			names[i] = null;
+			final boolean supportedType = supportedTypes.containsExtensionOf(name);
+			//pictures, lyrics, playlists... can only be files, which are not listed anyway
+			if (!supportedType && otherTypes.containsExtensionOf(name))
+				continue;
+			final String filePath = prefix + name;
+			//even files with supported extensions must be checked (someone could
+			//have created a directory named "Song.mp3"...)
+			final boolean isDirectory = (new File(filePath)).isDirectory();
+			if (isDirectory || supportedType) {
+				fileSts[count] = new FileSt(filePath, name, isDirectory);
+				count++;
+			}
+		}
+		//empty results are also cached, because directories without any supported
+		//files (like the ones full of pictures) are usually the most expensive ones
+		if (count != fileSts.length)
+			fileSts = Arrays.copyOf(fileSts, count);
+		ArraySorter.sort(fileSts, 0, count, directoriesFirstComparer);
+		if (useDirectoryCache)
+			DirectoryCache.put(path, lastModified, fileSts, 0, fileSts.length);
+		return fileSts;
+	}
+
+	private void fetchDirectory(Directory directory) {
+		final FileSt[] fileSts = listDirectory(directory.path, useDirectoryCache, this);
+		if (fileSts == null || fileSts.length == 0)
+			return;
+		//directories always come first after sorting
+		int directoryCount = 0;
+		while (directoryCount < fileSts.length && fileSts[directoryCount].isDirectory)
+			directoryCount++;
+		if (directoryCount > 0) {
+			final Directory[] subdirectories = new Directory[directoryCount];
+			for (int i = 0; i < directoryCount; i++)
+				subdirectories[i] = new Directory(fileSts[i].path);
+			directory.subdirectories = subdirectories;
+		}
+		directory.files = fileSts;
+	}
+
+	private void collectDirectories(Directory[] directories) throws Throwable {
+		//produce exactly the same order the old recursive version used to produce: all the
+		//entries of a directory, followed by the entries of each of its subdirectories
+		final ArrayDeque<Directory> stack = new ArrayDeque<>(64);
+		for (int i = directories.length - 1; i >= 0; i--)
+			stack.addLast(directories[i]);
+		Directory directory;
+		while ((directory = stack.pollLast()) != null) {
+			synchronized (walkerSync) {
+				while (!directory.done && walkerException == null && !cancelled && Player.state < Player.STATE_TERMINATING)
+					walkerSync.wait();
+				if (!directory.done)
+					return;
+			}
+			final FileSt[] files = directory.files;
+			final Directory[] subdirectories = directory.subdirectories;
+			directory.files = null;
+			directory.subdirectories = null;
+			if (files != null) {
+				if (count + files.length > this.files.length)
+					this.files = Arrays.copyOf(this.files, count + files.length + (count >> 1) + LIST_DELTA);
+				System.arraycopy(files, 0, this.files, count, files.length);
+				count += files.length;
+				if (batchListener != null)
+					batchListener.onFilesFetchedBatch(this, this.files, count - files.length, files.length);
+			}
+			if (subdirectories != null) {
+				for (int i = subdirectories.length - 1; i >= 0; i--)
+					stack.addLast(subdirectories[i]);
+			}
+		}
+	}
+
 	private void fetchPrivateFiles(String fileType) {
 		if (cancelled || Player.state >= Player.STATE_TERMINATING) {
 			count = 0;
@@ -879,9 +1120,7 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 	
 	@Override
 	public int compare(FileSt a, FileSt b) {
-		if (a.isDirectory == b.isDirectory)
-			return a.name.compareToIgnoreCase(b.name);
-		return (a.isDirectory ? -1 : 1);
+		return directoriesFirstComparer.compare(a, b);
 	}
 	
 	public void cancel() {
@@ -962,7 +1201,7 @@ public final class FileFetcher implements Runnable, ArraySorter.Comparer<FileSt>
 					fetchTracks(path);
 				}
 			} else {
-				fetchFiles(path, true);
+				fetchFiles(path);
 				computeSections();
 			}
 		} catch (Throwable ex) {
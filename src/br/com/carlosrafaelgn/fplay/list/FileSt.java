@@ -34,6 +34,8 @@ package br.com.carlosrafaelgn.fplay.list;
 
 import java.io.File;
 
+import br.com.carlosrafaelgn.fplay.util.SortKey;
+
 public final class FileSt extends BaseItem {
 	public static final String ARTIST_ROOT = "@";
 	public static final char ARTIST_ROOT_CHAR = '@';
@@ -66,6 +68,7 @@ public final class FileSt extends BaseItem {
 	public long artistIdForAlbumArt;
 	public File file;
 	public boolean isChecked;
+	private SortKey sortKey;
 	
 	public FileSt(File file) {
 		this.isDirectory = file.isDirectory();
@@ -83,6 +86,14 @@ public final class FileSt extends BaseItem {
 		this.albumArt = null;
 	}
 	
+	public FileSt(String absolutePath, String name, boolean isDirectory) {
+		this.isDirectory = isDirectory;
+		this.path = absolutePath;
+		this.name = name;
+		this.specialType = 0;
+		this.albumArt = null;
+	}
+	
 	public FileSt(String absolutePath, String name, String albumArt, int specialType) {
 		this.isDirectory = (specialType != 0);
 		this.path = absolutePath;
@@ -99,6 +110,13 @@ public final class FileSt extends BaseItem {
 		this.specialType = specialType;
 	}
 	
+	//name is final, so its key can be kept for as long as this file exists
+	public SortKey getSortKey() {
+		if (sortKey == null)
+			sortKey = new SortKey(name);
+		return sortKey;
+	}
+	
 	@Override
 	public String toString() {
 		return name;
@@ -0,0 +1,753 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+import br.com.carlosrafaelgn.fplay.playback.Player;
+import br.com.carlosrafaelgn.fplay.util.RecordReader;
+import br.com.carlosrafaelgn.fplay.util.RecordWriter;
+import br.com.carlosrafaelgn.fplay.util.Serializer;
+import br.com.carlosrafaelgn.fplay.util.SerializerInputStream;
+import br.com.carlosrafaelgn.fplay.util.SerializerOutputStream;
+import br.com.carlosrafaelgn.fplay.util.StorageWriter;
+import br.com.carlosrafaelgn.fplay.util.StringPool;
+
+//
+//Catalog of every audio file found in the storage roots, along with the metadata
+//extracted from it, keyed by path and validated by size and lastModified
+//
+//The catalog is only kept while Player.indexMediaLibrary is set (the user must opt in).
+//
+//The catalog is stored as a snapshot (FILE_NAME) followed by a journal (JOURNAL_FILE_NAME)
+//of the changes made since the snapshot was written, so that saving a few changes does not
+//require rewriting the whole catalog. The journal is merged into a new snapshot once it
+//grows too large. Both files are written by StorageWriter, and a journal is only replayed
+//over the snapshot whose id it carries.
+//
+//The indexer thread walks the storage roots one directory at a time, remembering the
+//lastModified of every directory it lists (the same way DirectoryCache does, but without
+//touching DirectoryCache, which is kept for the directories browsed by the user). A
+//directory whose lastModified has not changed is not listed again, and none of its files
+//are touched. Otherwise, the metadata of its files is only extracted again for the files
+//whose size or lastModified changed since the last time they were indexed.
+//
+//The indexer only runs while the device is charging, and it never holds a wake lock (it
+//just stops along with the CPU).
+//
+//All methods of this class can be called from any thread
+//
+public final class MediaLibrary {
+	static final class Entry {
+		public final String path, title, artist, album;
+		public final long size, lastModified;
+		public final int track, year, lengthMS;
+
+		public Entry(String path, long size, long lastModified, String title, String artist, String album, int track, int year, int lengthMS) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.title = title;
+			this.artist = artist;
+			this.album = album;
+			this.track = track;
+			this.year = year;
+			this.lengthMS = lengthMS;
+		}
+
+		public void serialize(OutputStream os) throws IOException {
+			Serializer.serializeString(os, path);
+			Serializer.serializeLong(os, size);
+			Serializer.serializeLong(os, lastModified);
+			Serializer.serializeString(os, title);
+			Serializer.serializeString(os, artist);
+			Serializer.serializeString(os, album);
+			Serializer.serializeInt(os, track);
+			Serializer.serializeInt(os, year);
+			Serializer.serializeInt(os, lengthMS);
+		}
+
+		public static Entry deserialize(InputStream is) throws IOException {
+			final String path = Serializer.deserializeString(is);
+			final long size = Serializer.deserializeLong(is);
+			final long lastModified = Serializer.deserializeLong(is);
+			final String title = Serializer.deserializeString(is);
+			final String artist = StringPool.intern(Serializer.deserializeString(is));
+			final String album = StringPool.intern(Serializer.deserializeString(is));
+			final int track = Serializer.deserializeInt(is);
+			final int year = Serializer.deserializeInt(is);
+			final int lengthMS = Serializer.deserializeInt(is);
+			if (path == null || title == null || artist == null || album == null)
+				throw new IOException();
+			return new Entry(path, size, lastModified, title, artist, album, track, year, lengthMS);
+		}
+	}
+
+	//What a directory contained the last time it was listed (only the names of its
+	//subdirectories and of its supported files)
+	private static final class Directory {
+		public final String path;
+		public final long lastModified;
+		public final String[] subdirectories, files;
+
+		public Directory(String path, long lastModified, String[] subdirectories, String[] files) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.subdirectories = subdirectories;
+			this.files = files;
+		}
+
+		private static void serializeNames(OutputStream os, String[] names) throws IOException {
+			Serializer.serializeInt(os, names.length);
+			for (int i = 0; i < names.length; i++)
+				Serializer.serializeString(os, names[i]);
+		}
+
+		private static String[] deserializeNames(InputStream is) throws IOException {
+			final int count = Serializer.deserializeInt(is);
+			if (count < 0)
+				throw new IOException();
+			final String[] names = new String[count];
+			for (int i = 0; i < count; i++) {
+				if ((names[i] = Serializer.deserializeString(is)) == null)
+					throw new IOException();
+			}
+			return names;
+		}
+
+		public void serialize(OutputStream os) throws IOException {
+			Serializer.serializeString(os, path);
+			Serializer.serializeLong(os, lastModified);
+			serializeNames(os, subdirectories);
+			serializeNames(os, files);
+		}
+
+		public static Directory deserialize(InputStream is) throws IOException {
+			final String path = Serializer.deserializeString(is);
+			final long lastModified = Serializer.deserializeLong(is);
+			if (path == null)
+				throw new IOException();
+			return new Directory(path, lastModified, deserializeNames(is), deserializeNames(is));
+		}
+	}
+
+	private static final int VERSION = 0x0100;
+	private static final int OP_PUT = 1;
+	private static final int OP_REMOVE = 2;
+	private static final int OP_INDEXED = 3;
+	private static final int OP_DIRECTORY = 4;
+	private static final int OP_REMOVE_DIRECTORY = 5;
+	private static final int MIN_JOURNAL_RECORDS_TO_COMPACT = 256;
+	private static final long INDEXING_INTERVAL_MS = 6 * 60 * 60 * 1000;
+	private static final long CHARGING_CHECK_INTERVAL_MS = 30000;
+	//some file systems store lastModified with a resolution of 1 or 2 seconds, so a directory
+	//modified during the last few seconds could still be modified without changing lastModified
+	private static final long MIN_AGE_MS = 3000;
+	private static final String FILE_NAME = "_Library";
+	private static final String JOURNAL_FILE_NAME = "_LibraryJournal";
+	private static final String[] EMPTY_NAMES = new String[0];
+	private static HashMap<String, Entry> entries;
+	private static HashMap<String, Directory> directories;
+	private static ByteArrayOutputStream pendingRecords;
+	private static RecordWriter pendingRecordWriter;
+	private static int pendingRecordCount, journalRecordCount, journalId;
+	private static long lastIndexingTime;
+	private static boolean loaded, mustCompact, journalStarted;
+	//only used by the storage writer thread
+	private static boolean journalBroken;
+	private static Thread indexerThread;
+
+	private MediaLibrary() {
+	}
+
+	static synchronized Entry get(String path, long size, long lastModified) {
+		if (!Player.indexMediaLibrary || lastModified == 0 || (!loaded && !load()))
+			return null;
+		final Entry entry = entries.get(path);
+		return ((entry == null || entry.size != size || entry.lastModified != lastModified) ? null : entry);
+	}
+
+	static synchronized void put(String path, long size, long lastModified, Song song) {
+		if (!Player.indexMediaLibrary || lastModified == 0 || (!loaded && !load()))
+			return;
+		final Entry entry = new Entry(path, size, lastModified, song.title, song.artist, song.album, song.track, song.year, song.lengthMS);
+		entries.put(path, entry);
+		try {
+			final OutputStream record = startRecord();
+			record.write(OP_PUT);
+			entry.serialize(record);
+			pendingRecordWriter.endRecord();
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	private static OutputStream startRecord() {
+		if (pendingRecords == null) {
+			pendingRecords = new ByteArrayOutputStream(4096);
+			pendingRecordWriter = new RecordWriter(pendingRecords);
+		}
+		pendingRecordCount++;
+		return pendingRecordWriter.startRecord();
+	}
+
+	private static void writePathRecord(int op, String path) {
+		try {
+			final OutputStream record = startRecord();
+			record.write(op);
+			Serializer.serializeString(record, path);
+			pendingRecordWriter.endRecord();
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	private static String makePrefix(String path) {
+		return ((path.charAt(path.length() - 1) == '/') ? path : (path + "/"));
+	}
+
+	//removes the directory, along with everything found inside it
+	private static void removeTree(String path) {
+		directories.remove(path);
+		final String prefix = makePrefix(path);
+		final Iterator<String> directoryIterator = directories.keySet().iterator();
+		while (directoryIterator.hasNext()) {
+			if (directoryIterator.next().startsWith(prefix))
+				directoryIterator.remove();
+		}
+		final Iterator<String> entryIterator = entries.keySet().iterator();
+		while (entryIterator.hasNext()) {
+			if (entryIterator.next().startsWith(prefix))
+				entryIterator.remove();
+		}
+	}
+
+	private static synchronized Directory getDirectory(String path) {
+		return ((!Player.indexMediaLibrary || (!loaded && !load())) ? null : directories.get(path));
+	}
+
+	private static void removeMissing(String prefix, String[] oldNames, String[] newNames, boolean subdirectories) {
+		if (oldNames.length == 0)
+			return;
+		final HashSet<String> names = new HashSet<>(newNames.length << 1);
+		for (int i = newNames.length - 1; i >= 0; i--)
+			names.add(newNames[i]);
+		for (int i = oldNames.length - 1; i >= 0; i--) {
+			if (names.contains(oldNames[i]))
+				continue;
+			final String path = prefix + oldNames[i];
+			if (subdirectories) {
+				removeTree(path);
+				writePathRecord(OP_REMOVE_DIRECTORY, path);
+			} else if (entries.remove(path) != null) {
+				writePathRecord(OP_REMOVE, path);
+			}
+		}
+	}
+
+	private static synchronized void directoryIndexed(Directory directory, Directory old) {
+		if (!Player.indexMediaLibrary || !loaded)
+			return;
+		//forget about whatever is no longer there
+		if (old != null) {
+			final String prefix = makePrefix(old.path);
+			removeMissing(prefix, old.files, directory.files, false);
+			removeMissing(prefix, old.subdirectories, directory.subdirectories, true);
+		}
+		directories.put(directory.path, directory);
+		try {
+			final OutputStream record = startRecord();
+			record.write(OP_DIRECTORY);
+			directory.serialize(record);
+			pendingRecordWriter.endRecord();
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	private static synchronized void indexingFinished(long time) {
+		if (!Player.indexMediaLibrary || !loaded)
+			return;
+		lastIndexingTime = time;
+		try {
+			final OutputStream record = startRecord();
+			record.write(OP_INDEXED);
+			Serializer.serializeLong(record, time);
+			pendingRecordWriter.endRecord();
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	private static synchronized boolean mustIndex() {
+		if (!Player.indexMediaLibrary || (!loaded && !load()))
+			return false;
+		final long elapsed = System.currentTimeMillis() - lastIndexingTime;
+		return (elapsed < 0 || elapsed >= INDEXING_INTERVAL_MS);
+	}
+
+	private static void replayRecord(RecordReader is) throws IOException {
+		final String path;
+		switch (is.read()) {
+		case OP_PUT:
+			final Entry entry = Entry.deserialize(is);
+			entries.put(entry.path, entry);
+			break;
+		case OP_REMOVE:
+			if ((path = Serializer.deserializeString(is)) != null)
+				entries.remove(path);
+			break;
+		case OP_INDEXED:
+			lastIndexingTime = Serializer.deserializeLong(is);
+			break;
+		case OP_DIRECTORY:
+			final Directory directory = Directory.deserialize(is);
+			directories.put(directory.path, directory);
+			break;
+		case OP_REMOVE_DIRECTORY:
+			if ((path = Serializer.deserializeString(is)) != null)
+				removeTree(path);
+			break;
+		default:
+			throw new IOException();
+		}
+	}
+
+	private static void loadSnapshot(Context context) {
+		FileInputStream fs = null;
+		BufferedInputStream bs = null;
+		try {
+			fs = context.openFileInput(FILE_NAME);
+			bs = new SerializerInputStream(fs, 4096);
+			if (Serializer.deserializeInt(bs) != VERSION)
+				return;
+			journalId = Serializer.deserializeInt(bs);
+			final long time = Serializer.deserializeLong(bs);
+			int count = Serializer.deserializeInt(bs);
+			while (count > 0) {
+				final Entry entry = Entry.deserialize(bs);
+				entries.put(entry.path, entry);
+				count--;
+			}
+			count = Serializer.deserializeInt(bs);
+			while (count > 0) {
+				final Directory directory = Directory.deserialize(bs);
+				directories.put(directory.path, directory);
+				count--;
+			}
+			lastIndexingTime = time;
+		} catch (Throwable ex) {
+			//just start all over again (ignoring whatever journal is there)
+			entries.clear();
+			directories.clear();
+			journalId = 0;
+			if (!(ex instanceof FileNotFoundException)) {
+				mustCompact = true;
+				ex.printStackTrace();
+			}
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+			try {
+				if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	private static void loadJournal(Context context) {
+		FileInputStream fs = null;
+		BufferedInputStream bs = null;
+		try {
+			fs = context.openFileInput(JOURNAL_FILE_NAME);
+			bs = new SerializerInputStream(fs, 4096);
+			final long length = context.getFileStreamPath(JOURNAL_FILE_NAME).length();
+			//a journal left behind by a previous snapshot must be ignored (it is overwritten
+			//by the next records)
+			if (length < 4 || Serializer.deserializeInt(bs) != journalId)
+				return;
+			journalStarted = true;
+			final RecordReader reader = new RecordReader(bs, length - 4);
+			while (reader.nextRecord()) {
+				replayRecord(reader);
+				journalRecordCount++;
+			}
+			//an incomplete record, written while the process was dying
+			if (reader.isTruncated())
+				mustCompact = true;
+		} catch (Throwable ex) {
+			if (!(ex instanceof FileNotFoundException)) {
+				//keep whatever has been replayed so far, and get rid of the journal the next time
+				mustCompact = true;
+				ex.printStackTrace();
+			}
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+			try {
+				if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	private static void reset() {
+		loaded = true;
+		entries = new HashMap<>(1024);
+		directories = new HashMap<>(256);
+		pendingRecords = null;
+		pendingRecordWriter = null;
+		pendingRecordCount = 0;
+		journalRecordCount = 0;
+		journalId = 0;
+		lastIndexingTime = 0;
+		mustCompact = false;
+		journalStarted = false;
+	}
+
+	private static boolean load() {
+		//try again later, instead of starting with an empty catalog, which would replace the
+		//actual catalog the next time it is compacted
+		final Context context = Player.getService();
+		if (context == null)
+			return false;
+		reset();
+		loadSnapshot(context);
+		loadJournal(context);
+		return true;
+	}
+
+	private static void writeSnapshot(Context context, Entry[] entries, Directory[] directories, long lastIndexingTime, int journalId) throws IOException {
+		FileOutputStream fs = null;
+		BufferedOutputStream bs = null;
+		boolean finished = false;
+		try {
+			fs = StorageWriter.startAtomicWrite(context, FILE_NAME);
+			bs = new SerializerOutputStream(fs, 4096);
+			Serializer.serializeInt(bs, VERSION);
+			Serializer.serializeInt(bs, journalId);
+			Serializer.serializeLong(bs, lastIndexingTime);
+			Serializer.serializeInt(bs, entries.length);
+			for (int i = 0; i < entries.length; i++)
+				entries[i].serialize(bs);
+			Serializer.serializeInt(bs, directories.length);
+			for (int i = 0; i < directories.length; i++)
+				directories[i].serialize(bs);
+			bs.flush();
+			StorageWriter.finishAtomicWrite(context, FILE_NAME, fs);
+			finished = true;
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+			try {
+				if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+			if (!finished)
+				StorageWriter.abortAtomicWrite(context, FILE_NAME);
+		}
+	}
+
+	private static void appendJournal(Context context, ByteArrayOutputStream records, boolean newJournal, int journalId) throws IOException {
+		FileOutputStream fs = null;
+		try {
+			fs = context.openFileOutput(JOURNAL_FILE_NAME, newJournal ? 0 : Context.MODE_APPEND);
+			//a new journal starts with the id of the snapshot it belongs to
+			if (newJournal)
+				Serializer.serializeInt(fs, journalId);
+			records.writeTo(fs);
+			fs.flush();
+		} finally {
+			try {
+				if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	//What must be written to FILE_NAME and to JOURNAL_FILE_NAME (the entries and the
+	//directories are immutable)
+	private static final class Job extends StorageWriter.Job {
+		private final boolean delete; //both files must be deleted before anything else
+		private final Entry[] entries; //the new snapshot, or null to just update the journal
+		private final Directory[] directories;
+		private final long lastIndexingTime;
+		private final int journalId;
+		private ByteArrayOutputStream records;
+		private boolean newJournal;
+
+		public Job(boolean delete, Entry[] entries, Directory[] directories, long lastIndexingTime, int journalId, ByteArrayOutputStream records, boolean newJournal) {
+			super(FILE_NAME);
+			this.delete = delete;
+			this.entries = entries;
+			this.directories = directories;
+			this.lastIndexingTime = lastIndexingTime;
+			this.journalId = journalId;
+			this.records = records;
+			this.newJournal = newJournal;
+		}
+
+		@Override
+		protected StorageWriter.Job coalesce(StorageWriter.Job older) {
+			if (delete || entries != null || !(older instanceof Job))
+				return this;
+			//append this job's records to the older job, which may also contain a snapshot
+			final Job job = (Job)older;
+			if (job.records == null) {
+				job.records = records;
+				job.newJournal = newJournal;
+			} else {
+				final byte[] buf = records.toByteArray();
+				job.records.write(buf, 0, buf.length);
+			}
+			return job;
+		}
+
+		@Override
+		protected void write(Context context) {
+			try {
+				if (delete) {
+					context.deleteFile(JOURNAL_FILE_NAME);
+					context.deleteFile(FILE_NAME);
+					journalBroken = false;
+				}
+				if (entries != null) {
+					writeSnapshot(context, entries, directories, lastIndexingTime, journalId);
+					//a journal left behind by a previous snapshot is ignored, because of its id,
+					//so there is no problem if the process dies before it is deleted
+					context.deleteFile(JOURNAL_FILE_NAME);
+					journalBroken = false;
+				}
+				//until a new snapshot is written, nothing else can be trusted
+				if (journalBroken)
+					return;
+				if (records != null)
+					appendJournal(context, records, newJournal, journalId);
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+				journalBroken = true;
+				//the files could not be written, so a new snapshot must be written next time
+				synchronized (MediaLibrary.class) {
+					mustCompact = true;
+				}
+			}
+		}
+	}
+
+	public static synchronized void serialize(Context context) {
+		if (!loaded || (pendingRecordCount == 0 && !mustCompact))
+			return;
+		final Job job;
+		final int journalRecords = journalRecordCount + pendingRecordCount;
+		if (mustCompact || (journalRecords >= MIN_JOURNAL_RECORDS_TO_COMPACT && journalRecords >= ((entries.size() + directories.size()) >> 2))) {
+			journalId++;
+			job = new Job(false, entries.values().toArray(new Entry[entries.size()]), directories.values().toArray(new Directory[directories.size()]), lastIndexingTime, journalId, null, false);
+			journalRecordCount = 0;
+			journalStarted = false;
+			mustCompact = false;
+		} else {
+			job = new Job(false, null, null, 0, journalId, pendingRecords, !journalStarted);
+			journalRecordCount = journalRecords;
+			journalStarted = true;
+		}
+		pendingRecords = null;
+		pendingRecordWriter = null;
+		pendingRecordCount = 0;
+		StorageWriter.post(context, job);
+	}
+
+	//called when the user opts out: the catalog is emptied (it is not loaded again from the
+	//files being deleted, so there is no need to wait for them to be deleted)
+	public static synchronized void clear(Context context) {
+		reset();
+		StorageWriter.post(context, new Job(true, null, null, 0, 0, null, false));
+	}
+
+	public static synchronized void startIndexing() {
+		if (indexerThread != null || !Player.indexMediaLibrary)
+			return;
+		indexerThread = new Thread("Media Library Indexer Thread") {
+			@Override
+			public void run() {
+				try {
+					index();
+				} catch (Throwable ex) {
+					ex.printStackTrace();
+				} finally {
+					synchronized (MediaLibrary.class) {
+						indexerThread = null;
+					}
+				}
+			}
+		};
+		indexerThread.setPriority(Thread.MIN_PRIORITY);
+		indexerThread.start();
+	}
+
+	private static boolean isCharging(Context context) {
+		//ACTION_BATTERY_CHANGED is sticky, so its last value is returned without actually
+		//registering any receivers
+		final Intent intent = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		return (intent != null && intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0);
+	}
+
+	//lists the directory only if it has changed since it was last indexed, adding the paths
+	//of its subdirectories to pendingDirectories, and returns false if indexing was interrupted
+	private static boolean indexDirectory(String path, ArrayList<String> pendingDirectories, byte[][] tmpPtr) {
+		final long lastModified = (new File(path)).lastModified();
+		final Directory old = getDirectory(path);
+		if (old != null && lastModified != 0 && old.lastModified == lastModified) {
+			//nothing has been added to, removed from or renamed inside this directory (files
+			//rewritten in place are not indexed again, but Song never uses their outdated
+			//entries, as they do not match the new size/lastModified)
+			final String prefix = makePrefix(path);
+			for (int i = old.subdirectories.length - 1; i >= 0; i--)
+				pendingDirectories.add(prefix + old.subdirectories[i]);
+			return true;
+		}
+		final FileSt[] fileSts = FileFetcher.listDirectory(path, false, null);
+		String[] subdirectories = EMPTY_NAMES, files = EMPTY_NAMES;
+		if (fileSts != null) {
+			//directories always come first
+			int directoryCount = 0;
+			while (directoryCount < fileSts.length && fileSts[directoryCount].isDirectory)
+				directoryCount++;
+			subdirectories = new String[directoryCount];
+			files = new String[fileSts.length - directoryCount];
+			for (int i = 0; i < directoryCount; i++) {
+				subdirectories[i] = fileSts[i].name;
+				pendingDirectories.add(fileSts[i].path);
+			}
+			for (int i = directoryCount; i < fileSts.length; i++) {
+				if (!Player.indexMediaLibrary || Player.state >= Player.STATE_TERMINATING)
+					return false;
+				files[i - directoryCount] = fileSts[i].name;
+				try {
+					//Song takes care of extracting the metadata only when the file is not
+					//in the catalog, or when it has changed since it was indexed
+					new Song(fileSts[i], tmpPtr);
+				} catch (Throwable ex) {
+					ex.printStackTrace();
+				}
+			}
+		}
+		//a directory modified during the last few seconds is listed again next time
+		directoryIndexed(new Directory(path, ((System.currentTimeMillis() - lastModified) < MIN_AGE_MS) ? 0 : lastModified, subdirectories, files), old);
+		return true;
+	}
+
+	private static void index() {
+		Context context = Player.getService();
+		if (context == null || !isCharging(context) || !mustIndex())
+			return;
+		final FileFetcher root = FileFetcher.fetchFilesInThisThread(null, null, null, false, false, false, false, false, false);
+		if (root.files == null)
+			return;
+		//only the paths of the directories still to be listed are kept in memory
+		final ArrayList<String> pendingDirectories = new ArrayList<>(64);
+		for (int i = root.count - 1; i >= 0; i--) {
+			final FileSt storage = root.files[i];
+			if (storage != null &&
+				(storage.specialType == FileSt.TYPE_INTERNAL_STORAGE ||
+				storage.specialType == FileSt.TYPE_EXTERNAL_STORAGE ||
+				storage.specialType == FileSt.TYPE_EXTERNAL_STORAGE_USB))
+				pendingDirectories.add(storage.path);
+		}
+		final byte[][] tmpPtr = new byte[][] { new byte[256] };
+		long lastChargingCheck = System.currentTimeMillis();
+		boolean completed = true;
+		int i;
+		while ((i = pendingDirectories.size() - 1) >= 0) {
+			if (!Player.indexMediaLibrary || Player.state >= Player.STATE_TERMINATING || (context = Player.getService()) == null) {
+				completed = false;
+				break;
+			}
+			final long now = System.currentTimeMillis();
+			if ((now - lastChargingCheck) >= CHARGING_CHECK_INTERVAL_MS || now < lastChargingCheck) {
+				lastChargingCheck = now;
+				if (!isCharging(context)) {
+					//whatever has been indexed so far is kept, and the rest is indexed the next
+					//time the device is plugged in
+					completed = false;
+					break;
+				}
+			}
+			if (!indexDirectory(pendingDirectories.remove(i), pendingDirectories, tmpPtr)) {
+				completed = false;
+				break;
+			}
+		}
+		if (completed)
+			indexingFinished(System.currentTimeMillis());
+		if ((context = Player.getService()) != null && Player.state < Player.STATE_TERMINATING)
+			serialize(context);
+	}
+}
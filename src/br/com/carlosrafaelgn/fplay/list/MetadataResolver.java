@@ -0,0 +1,228 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import br.com.carlosrafaelgn.fplay.activity.MainHandler;
+import br.com.carlosrafaelgn.fplay.playback.Player;
+
+//
+//Fills in the metadata of placeholder songs (see Song(FileSt)) in the background
+//
+//The songs that have been given to prioritize() (visible rows, the current song and the
+//next one) are resolved first, the most recent ones first, and then all the others, in the
+//order they were given to resolve()
+//
+//Just like SongList.Adder, a few threads are used, as extracting the metadata is mostly
+//bound by I/O latency
+//
+//All methods of this class can be called from any thread
+//
+public final class MetadataResolver implements Runnable {
+	private static final int MAX_PRIORITY_SONGS = 64;
+	private static final int MAX_THREADS = 4;
+	private static final long IDLE_TIMEOUT_MS = 1000;
+	private static final Object sync = new Object();
+	private static final ArrayDeque<Song> songs = new ArrayDeque<>(256), prioritySongs = new ArrayDeque<>(MAX_PRIORITY_SONGS);
+	//pairs of placeholders and the songs whose metadata will be copied into them
+	private static final ArrayList<Song> resolvedSongs = new ArrayList<>(64);
+	private static final MetadataResolver applier = new MetadataResolver();
+	private static boolean applying;
+	private static int threads, idleThreads;
+
+	private MetadataResolver() {
+	}
+
+	public static void resolve(Song song) {
+		synchronized (sync) {
+			if (song.resolving || song.removed || !song.unresolved)
+				return;
+			songs.addLast(song);
+			wakeUp();
+		}
+	}
+
+	public static void resolve(Song[] songs, int offset, int count) {
+		count += offset;
+		synchronized (sync) {
+			int added = 0;
+			for (int i = offset; i < count; i++) {
+				final Song song = songs[i];
+				if (!song.resolving && !song.removed && song.unresolved) {
+					MetadataResolver.songs.addLast(song);
+					added++;
+				}
+			}
+			//wake up (or create) as many threads as there are songs, up to the limit
+			for (added = Math.min(added, MAX_THREADS); added > 0; added--)
+				wakeUp();
+		}
+	}
+
+	public static void prioritize(Song song) {
+		if (song == null || !song.unresolved)
+			return;
+		synchronized (sync) {
+			if (song.resolving || song.removed)
+				return;
+			//if the same song is prioritized twice, the first entry is simply skipped later
+			if (prioritySongs.size() >= MAX_PRIORITY_SONGS)
+				prioritySongs.pollLast();
+			prioritySongs.addFirst(song);
+			wakeUp();
+		}
+	}
+
+	//drops the songs removed from the list right away (next() would only drop them when
+	//reaching them, keeping them, and their list, alive until then)
+	public static void forgetRemovedSongs() {
+		synchronized (sync) {
+			forgetRemovedSongs(prioritySongs);
+			forgetRemovedSongs(songs);
+		}
+	}
+
+	private static void forgetRemovedSongs(ArrayDeque<Song> queue) {
+		final Iterator<Song> iterator = queue.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().removed)
+				iterator.remove();
+		}
+	}
+
+	private static void wakeUp() {
+		if (idleThreads > 0) {
+			sync.notify();
+			return;
+		}
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		if (maxThreads < 2)
+			maxThreads = 2;
+		else if (maxThreads > MAX_THREADS)
+			maxThreads = MAX_THREADS;
+		//the threads already running will get to the new song eventually
+		if (threads >= maxThreads)
+			return;
+		threads++;
+		final Thread thread = new Thread("Metadata Resolver Thread") {
+			@Override
+			public void run() {
+				work();
+			}
+		};
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	private static Song next() {
+		//the songs removed from the list (or cleared) while waiting are simply dropped
+		Song song;
+		while ((song = prioritySongs.pollFirst()) != null) {
+			if (!song.resolving && !song.removed && song.unresolved)
+				return song;
+		}
+		while ((song = songs.pollFirst()) != null) {
+			if (!song.resolving && !song.removed && song.unresolved)
+				return song;
+		}
+		return null;
+	}
+
+	private static void work() {
+		final byte[][] tmpPtr = new byte[][] { new byte[256] };
+		for (;;) {
+			Song song;
+			synchronized (sync) {
+				if ((song = next()) == null && Player.state < Player.STATE_TERMINATING) {
+					idleThreads++;
+					try {
+						sync.wait(IDLE_TIMEOUT_MS);
+					} catch (InterruptedException ex) {
+						ex.printStackTrace();
+					}
+					idleThreads--;
+					song = next();
+				}
+				if (song == null || Player.state >= Player.STATE_TERMINATING) {
+					threads--;
+					return;
+				}
+				song.resolving = true;
+			}
+			final String path = song.getPath();
+			Song resolvedSong = null;
+			try {
+				resolvedSong = new Song(new FileSt(path, path.substring(path.lastIndexOf('/') + 1), false), tmpPtr);
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+			//if the file cannot be read, just keep the placeholder's metadata (otherwise the
+			//song would be left marked as resolving, and would never be tried again)
+			if (resolvedSong == null)
+				resolvedSong = song;
+			synchronized (sync) {
+				resolvedSongs.add(song);
+				resolvedSongs.add(resolvedSong);
+				//all songs resolved until the main thread gets to run applier are applied together
+				if (!applying) {
+					applying = true;
+					MainHandler.postToMainThread(applier);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		final Song[] pairs;
+		synchronized (sync) {
+			applying = false;
+			pairs = resolvedSongs.toArray(new Song[resolvedSongs.size()]);
+			resolvedSongs.clear();
+		}
+		if (Player.state >= Player.STATE_TERMINATING)
+			return;
+		boolean currentSongChanged = false;
+		for (int i = 0; i < pairs.length; i += 2) {
+			pairs[i].copyMetadata(pairs[i + 1]);
+			if (pairs[i] == Player.localSong)
+				currentSongChanged = true;
+		}
+		Player.songs.notifyCheckedChanged();
+		if (currentSongChanged)
+			Player.currentSongMetadataChanged();
+	}
+}
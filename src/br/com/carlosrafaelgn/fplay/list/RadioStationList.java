@@ -58,7 +58,12 @@ import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.ui.RadioStationView;
 import br.com.carlosrafaelgn.fplay.ui.UI;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter;
+import br.com.carlosrafaelgn.fplay.util.RecordReader;
+import br.com.carlosrafaelgn.fplay.util.RecordWriter;
 import br.com.carlosrafaelgn.fplay.util.Serializer;
+import br.com.carlosrafaelgn.fplay.util.SerializerInputStream;
+import br.com.carlosrafaelgn.fplay.util.SerializerOutputStream;
+import br.com.carlosrafaelgn.fplay.util.StorageWriter;
 
 public final class RadioStationList extends BaseList<RadioStation> implements Runnable, ArraySorter.Comparer<RadioStation>, MainHandler.Callback {
 	//after analyzing the results obtained from http://dir.xiph.org/xxx
@@ -514,10 +519,16 @@ public final class RadioStationList extends BaseList<RadioStation> implements Ru
 		BufferedInputStream bs = null;
 		try {
 			fs = context.openFileInput("_RadioFav");
-			bs = new BufferedInputStream(fs, 4096);
+			bs = new SerializerInputStream(fs, 4096);
 			final int version = Serializer.deserializeInt(bs);
 			final int count = Math.min(Serializer.deserializeInt(bs), MAX_COUNT);
-			if (version == 0x0100 && count > 0) {
+			if (version == 0x0101 && count > 0) {
+				favorites.clear();
+				//each station is a record, so the fields added by newer versions are skipped
+				final RecordReader reader = new RecordReader(bs, context.getFileStreamPath("_RadioFav").length() - 8);
+				for (int i = 0; i < count && reader.nextRecord(); i++)
+					favorites.add(RadioStation.deserialize(reader, true));
+			} else if (version == 0x0100 && count > 0) {
 				favorites.clear();
 				for (int i = 0; i < count; i++)
 					favorites.add(RadioStation.deserialize(bs, true));
@@ -550,17 +561,25 @@ public final class RadioStationList extends BaseList<RadioStation> implements Ru
 		try {
 			final int count = Math.min(MAX_COUNT, favorites.size());
 			int i = 0;
-			fs = context.openFileOutput("_RadioFav", 0);
-			bs = new BufferedOutputStream(fs, 4096);
-			Serializer.serializeInt(bs, 0x0100);
+			//the favorites are written to a temporary file first, so they are not lost if the
+			//process dies while they are being written
+			fs = StorageWriter.startAtomicWrite(context, "_RadioFav");
+			bs = new SerializerOutputStream(fs, 4096);
+			Serializer.serializeInt(bs, 0x0101);
 			Serializer.serializeInt(bs, count);
+			final RecordWriter writer = new RecordWriter(bs);
 			for (RadioStation s : favorites) {
 				if (i >= count)
 					break;
-				s.serialize(bs);
+				s.serialize(writer.startRecord());
+				writer.endRecord();
 				i++;
 			}
 			bs.flush();
+			StorageWriter.finishAtomicWrite(context, "_RadioFav", fs);
+		} catch (IOException ex) {
+			StorageWriter.abortAtomicWrite(context, "_RadioFav");
+			throw ex;
 		} finally {
 			try {
 				if (bs != null)
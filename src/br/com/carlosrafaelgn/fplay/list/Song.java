@@ -34,12 +34,18 @@ package br.com.carlosrafaelgn.fplay.list;
 
 import android.media.MediaMetadataRetriever;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 import br.com.carlosrafaelgn.fplay.playback.MetadataExtractor;
 import br.com.carlosrafaelgn.fplay.util.Serializer;
+import br.com.carlosrafaelgn.fplay.util.SerializerInputStream;
+import br.com.carlosrafaelgn.fplay.util.SortKey;
+import br.com.carlosrafaelgn.fplay.util.StringPool;
 
 public final class Song extends BaseItem {
 	public static final int EXTRA_ARTIST = 0;
@@ -48,17 +54,38 @@ public final class Song extends BaseItem {
 	public static final int EXTRA_TRACK_ALBUM = 3;
 	public static final int EXTRA_TRACK_ARTIST_ALBUM = 4;
 	public static final int EXTRA_ARTIST_ALBUM = 5;
+	private static final int FLAG_UNRESOLVED = 0x01;
 	public static int extraInfoMode;
-	public final String path;
+	//the directory is shared by all songs in the same folder (see StringPool), and the full
+	//path is only built when needed (it is null for URLs, which are kept entirely in name)
+	private final String directory;
+	private String name;
+	//name and title of the songs loaded from the main list stay encoded inside a chunk shared
+	//by many songs (see LazyHeap) until they are needed for the first time (see materialize)
+	private volatile byte[] lazyData;
+	private int lazyOffset;
 	public final boolean isHttp;
-	public String title, artist, album, extraInfo;
+	public String title, artist, album;
 	public int track, lengthMS, year;
-	public String length;
-	public boolean alreadyPlayed, selected;
+	public boolean alreadyPlayed, selected, unresolved;
+	//created only when the song is displayed for the first time (most songs in a large list
+	//are never displayed), and kept afterwards, so scrolling does not keep creating them
+	private String length, extraInfo;
+	//created only when the list is sorted for the first time, and kept until the metadata
+	//changes, so sorting again does not have to fold the same strings over and over again
+	private SortKey titleKey, artistKey, albumKey;
+	//resolving is used by MetadataResolver, and removed is set by SongList once the song is
+	//removed from the list (songs are never added back)
+	boolean resolving, removed;
+	//positions of this song inside SongList's items and shuffledList (they are just hints,
+	//and must always be checked against the actual arrays before being used)
+	int listIndex, shuffledIndex;
 	
-	private Song(String path, String title, String artist, String album, int track, int lengthMS, int year) {
-		this.path = path;
+	private Song(String path, String title, String artist, String album, int track, int lengthMS, int year, boolean unresolved) {
 		this.isHttp = (path.startsWith("http://") || path.startsWith("https://"));
+		this.directory = (isHttp ? null : directoryOf(path));
+		this.name = ((directory == null) ? path : nameOf(path));
+		this.unresolved = unresolved;
 		this.title = title;
 		this.artist = artist;
 		this.album = album;
@@ -68,22 +95,142 @@ public final class Song extends BaseItem {
 		validateFields(null);
 	}
 	
+	private Song(String directory, String name, String title, String artist, String album, int track, int lengthMS, int year, boolean unresolved) {
+		this.isHttp = (directory == null && (name.startsWith("http://") || name.startsWith("https://")));
+		this.directory = directory;
+		this.name = name;
+		this.unresolved = unresolved;
+		this.title = title;
+		this.artist = artist;
+		this.album = album;
+		this.track = track;
+		this.lengthMS = lengthMS;
+		this.year = year;
+		validateFields(null);
+	}
+	
+	private Song(String directory, byte[] lazyData, int lazyOffset, String artist, String album, int track, int lengthMS, int year) {
+		this.isHttp = false;
+		this.directory = directory;
+		this.lazyOffset = lazyOffset;
+		this.artist = artist;
+		this.album = album;
+		this.track = track;
+		this.lengthMS = lengthMS;
+		this.year = year;
+		validateFields(null);
+		//name and title are only decoded by materialize()
+		this.title = null;
+		this.lazyData = lazyData;
+	}
+	
 	public Song(String url, String title) {
-		this.path = url.trim();
+		this.directory = null;
+		this.name = url.trim();
 		this.isHttp = true;
 		this.title = title.trim();
 		validateFields(null);
 	}
 	
+	//creates a song with the metadata found in the media library or, when the file is not
+	//there, a placeholder, with a title taken from the file name, whose actual metadata will
+	//be filled in later by MetadataResolver
+	public Song(FileSt fileSt) {
+		this.directory = directoryOf(fileSt.path);
+		this.name = ((directory == null) ? fileSt.path : nameOf(fileSt.path));
+		this.isHttp = false;
+		
+		final File file = ((fileSt.file != null) ? fileSt.file : new File(fileSt.path));
+		if (copyFromLibrary(fileSt.path, file.length(), file.lastModified()))
+			return;
+		
+		this.unresolved = true;
+		validateFields(fileSt.name);
+	}
+	
 	public Song(FileSt fileSt, byte[][] tmpPtr) {
-		this.path = fileSt.path;
+		this.directory = directoryOf(fileSt.path);
+		this.name = ((directory == null) ? fileSt.path : nameOf(fileSt.path));
 		this.isHttp = false;
 		
+		//a single stat is enough for files whose metadata has already been extracted before
+		final File file = ((fileSt.file != null) ? fileSt.file : new File(fileSt.path));
+		final long size = file.length(), lastModified = file.lastModified();
+		if (copyFromLibrary(fileSt.path, size, lastModified))
+			return;
+		
+		final boolean extracted = extractMetadata(fileSt, tmpPtr);
+		validateFields(fileSt.name);
+		//the file name is not cached in place of the actual metadata, so the file can be tried
+		//again later
+		if (extracted)
+			MediaLibrary.put(fileSt.path, size, lastModified, this);
+	}
+	
+	private boolean copyFromLibrary(String path, long size, long lastModified) {
+		final MediaLibrary.Entry entry = MediaLibrary.get(path, size, lastModified);
+		if (entry == null)
+			return false;
+		this.title = entry.title;
+		this.artist = entry.artist;
+		this.album = entry.album;
+		this.track = entry.track;
+		this.year = entry.year;
+		this.lengthMS = entry.lengthMS;
+		//the fields were validated before being stored
+		validateFields(null);
+		return true;
+	}
+	
+	private static String directoryOf(String path) {
+		final int i = path.lastIndexOf('/');
+		return ((i > 0) ? StringPool.intern(path.substring(0, i + 1)) : null);
+	}
+	
+	private static String nameOf(String path) {
+		//older VMs share the char array of the original string with its substrings, which
+		//would keep the entire path alive
+		return new String(path.substring(path.lastIndexOf('/') + 1));
+	}
+	
+	//can be called from any thread, and does not materialize the song
+	public String getPath() {
+		final byte[] lazyData = this.lazyData;
+		final String name = ((lazyData == null) ? this.name : Serializer.deserializeString(lazyData, lazyOffset));
+		return ((directory == null) ? name : (directory + name));
+	}
+	
+	private int lazyTitleOffset(byte[] lazyData) {
+		//the name is never null (see deserializeCompact)
+		return lazyOffset + 4 + Serializer.deserializeInt(lazyData, lazyOffset);
+	}
+	
+	private String lazyTitle(byte[] lazyData) {
+		final String title = Serializer.deserializeString(lazyData, lazyTitleOffset(lazyData));
+		return ((title == null || title.length() == 0) ? "-" : title);
+	}
+	
+	//must be called from the main thread before title is used (SongList calls it whenever a
+	//song is displayed, played or sorted)
+	void materialize() {
+		final byte[] lazyData = this.lazyData;
+		if (lazyData == null)
+			return;
+		name = Serializer.deserializeString(lazyData, lazyOffset);
+		title = lazyTitle(lazyData);
+		//lazyData is volatile, so the other threads that see it null also see name and title
+		this.lazyData = null;
+	}
+	
+	//returns false if the metadata could be extracted neither by MetadataExtractor nor by
+	//MediaMetadataRetriever
+	private boolean extractMetadata(FileSt fileSt, byte[][] tmpPtr) {
 		//MediaMetadataRetriever simply returns null for all keys, except METADATA_KEY_DURATION,
 		//on several devices, even though the file has the metadata... :(
 		//So, trust our MetadataExtractor, and only call MediaMetadataRetriever for unsupported file types
 		
 		final String[] fields = MetadataExtractor.extract(fileSt, tmpPtr);
+		boolean extracted = (fields != null);
 		
 		if (fields != null) {
 			this.title = fields[MetadataExtractor.TITLE];
@@ -109,6 +256,7 @@ public final class Song extends BaseItem {
 			final MediaMetadataRetriever retr = new MediaMetadataRetriever();
 			try {
 				retr.setDataSource(fileSt.path);
+				extracted = true;
 				String s;
 				if (fields == null) {
 					try {
@@ -141,7 +289,7 @@ public final class Song extends BaseItem {
 			}
 			retr.release();
 		}
-		validateFields(fileSt.name);
+		return extracted;
 	}
 	
 	private void validateFields(String fileName) {
@@ -166,6 +314,8 @@ public final class Song extends BaseItem {
 				artist = artist.trim();
 			if (artist.length() == 0)
 				artist = "-";
+			else
+				artist = StringPool.intern(artist);
 		}
 		if (album == null) {
 			album = "-";
@@ -174,62 +324,108 @@ public final class Song extends BaseItem {
 				album = album.trim();
 			if (album.length() == 0)
 				album = "-";
+			else
+				album = StringPool.intern(album);
 		}
-		updateExtraInfo();
 		if (track <= 0)
 			track = -1;
 		if (lengthMS <= 0)
 			lengthMS = -1;
 		if (year <= 0)
 			year = -1;
-		if (isHttp)
-			length = "";
-		else
-			length = formatTime(lengthMS);
+		titleKey = null;
+		artistKey = null;
+		albumKey = null;
+	}
+	
+	//only placeholders are resolved, and they are never lazy (see deserializeCompact)
+	void copyMetadata(Song song) {
+		title = song.title;
+		artist = song.artist;
+		album = song.album;
+		track = song.track;
+		lengthMS = song.lengthMS;
+		year = song.year;
+		unresolved = false;
+		titleKey = null;
+		artistKey = null;
+		albumKey = null;
+		clearDisplayStrings();
+	}
+	
+	//must be called from the main thread whenever the metadata or extraInfoMode change
+	void clearDisplayStrings() {
+		length = null;
+		extraInfo = null;
 	}
 	
 	@Override
 	public String toString() {
-		return title;
+		final byte[] lazyData = this.lazyData;
+		return ((lazyData == null) ? title : lazyTitle(lazyData));
 	}
 	
-	public void updateExtraInfo() {
-		if (isHttp) {
-			extraInfo = "";
-		} else {
-			switch (extraInfoMode) {
-			case EXTRA_ARTIST:
-				extraInfo = artist;
-				break;
-			case EXTRA_ALBUM:
-				extraInfo = album;
-				break;
-			case EXTRA_TRACK_ARTIST:
-				extraInfo = ((track > 0) ? (track + " / " + artist) : artist);
-				break;
-			case EXTRA_TRACK_ALBUM:
-				extraInfo = ((track > 0) ? (track + " / " + album) : album);
-				break;
-			case EXTRA_TRACK_ARTIST_ALBUM:
-				extraInfo = ((track > 0) ? (track + " / " + artist + " / " + album) : (artist + " / " + album));
-				break;
-			default:
-				extraInfo = artist + " / " + album;
-				break;
-			}
+	//called while sorting, from the main thread and from ArraySorter's threads (SortKey is
+	//immutable, so the worst that can happen is the same key being created twice)
+	SortKey getTitleKey() {
+		if (titleKey == null)
+			titleKey = new SortKey(title);
+		return titleKey;
+	}
+	
+	SortKey getArtistKey() {
+		if (artistKey == null)
+			artistKey = new SortKey(artist);
+		return artistKey;
+	}
+	
+	SortKey getAlbumKey() {
+		if (albumKey == null)
+			albumKey = new SortKey(album);
+		return albumKey;
+	}
+	
+	public String getLength() {
+		if (length == null)
+			length = (isHttp ? "" : formatTime(lengthMS));
+		return length;
+	}
+	
+	public String getExtraInfo() {
+		if (extraInfo == null)
+			extraInfo = createExtraInfo();
+		return extraInfo;
+	}
+	
+	private String createExtraInfo() {
+		if (isHttp)
+			return "";
+		switch (extraInfoMode) {
+		case EXTRA_ARTIST:
+			return artist;
+		case EXTRA_ALBUM:
+			return album;
+		case EXTRA_TRACK_ARTIST:
+			return ((track > 0) ? (track + " / " + artist) : artist);
+		case EXTRA_TRACK_ALBUM:
+			return ((track > 0) ? (track + " / " + album) : album);
+		case EXTRA_TRACK_ARTIST_ALBUM:
+			return ((track > 0) ? (track + " / " + artist + " / " + album) : (artist + " / " + album));
+		default:
+			return artist + " / " + album;
 		}
 	}
 	
 	public void serialize(OutputStream os) throws IOException {
 		//NEVER change this order! (changing will destroy existing lists)
-		Serializer.serializeString(os, path);
-		Serializer.serializeString(os, title);
+		Serializer.serializeString(os, getPath());
+		Serializer.serializeString(os, toString());
 		Serializer.serializeString(os, artist);
 		Serializer.serializeString(os, album);
 		Serializer.serializeInt(os, track);
 		Serializer.serializeInt(os, lengthMS);
 		Serializer.serializeInt(os, year);
-		Serializer.serializeInt(os, 0); //flags
+		Serializer.serializeInt(os, unresolved ? FLAG_UNRESOLVED : 0); //flags
 	}
 	
 	public static Song deserialize(InputStream is) throws IOException {
@@ -243,8 +439,140 @@ public final class Song extends BaseItem {
 		track = Serializer.deserializeInt(is);
 		lengthMS = Serializer.deserializeInt(is);
 		year = Serializer.deserializeInt(is);
-		Serializer.deserializeInt(is); //flags
-		return new Song(path, title, artist, album, track, lengthMS, year);
+		final int flags = Serializer.deserializeInt(is);
+		return new Song(path, title, artist, album, track, lengthMS, year, (flags & FLAG_UNRESOLVED) != 0);
+	}
+	
+	//Strings repeated throughout a list (directories, artists and albums) are stored only
+	//once per file, the first time they appear, and are referenced by their index afterwards.
+	//A table must only be used while writing or reading a single file.
+	static final class StringTable {
+		private final HashMap<String, Integer> indices;
+		private final ArrayList<String> strings;
+		
+		public StringTable() {
+			indices = new HashMap<>(256);
+			strings = new ArrayList<>(256);
+		}
+		
+		public void serialize(OutputStream os, String value) throws IOException {
+			//0 = null, 1 = a new string follows, 2 or greater = index of a known string + 2
+			if (value == null) {
+				Serializer.serializeVarInt(os, 0);
+				return;
+			}
+			final Integer index = indices.get(value);
+			if (index != null) {
+				Serializer.serializeVarInt(os, index + 2);
+			} else {
+				indices.put(value, indices.size());
+				Serializer.serializeVarInt(os, 1);
+				Serializer.serializeString(os, value);
+			}
+		}
+		
+		public String deserialize(InputStream is) throws IOException {
+			final int index = Serializer.deserializeVarInt(is);
+			switch (index) {
+			case 0:
+				return null;
+			case 1:
+				final String value = StringPool.intern(Serializer.deserializeString(is));
+				strings.add(value);
+				return value;
+			}
+			if (index < 2 || index >= (strings.size() + 2))
+				throw new IOException();
+			return strings.get(index - 2);
+		}
+	}
+	
+	//smaller version of serialize(), used for the main list, which shares directories, artists
+	//and albums among all songs through the table
+	void serializeCompact(OutputStream os, StringTable table) throws IOException {
+		//NEVER change this order! (changing will destroy existing lists)
+		table.serialize(os, directory);
+		final byte[] lazyData = this.lazyData;
+		if (lazyData != null) {
+			//name and title are written back just as they were read
+			final int titleOffset = lazyTitleOffset(lazyData);
+			final int titleLength = Serializer.deserializeInt(lazyData, titleOffset);
+			os.write(lazyData, lazyOffset, titleOffset + 4 + ((titleLength > 0) ? titleLength : 0) - lazyOffset);
+		} else {
+			Serializer.serializeString(os, name);
+			Serializer.serializeString(os, title);
+		}
+		table.serialize(os, artist);
+		table.serialize(os, album);
+		Serializer.serializeVarInt(os, track);
+		Serializer.serializeVarInt(os, lengthMS);
+		Serializer.serializeVarInt(os, year);
+		Serializer.serializeVarInt(os, unresolved ? FLAG_UNRESOLVED : 0); //flags
+	}
+	
+	//Keeps name and title of many songs, exactly as they were serialized (length + UTF-8 bytes),
+	//in chunks of CHUNK_SIZE bytes, so that loading a list creates no strings for them. A chunk
+	//is released once all of its songs have been materialized or removed.
+	static final class LazyHeap {
+		private static final int CHUNK_SIZE = 65536;
+		private byte[] chunk;
+		private int start, used;
+		
+		public void begin() {
+			start = used;
+		}
+		
+		public void rewind() {
+			used = start;
+		}
+		
+		public void copyString(SerializerInputStream is) throws IOException {
+			final int length = is.readInt();
+			final int size = ((length > 0) ? length : 0) + 4;
+			if (chunk == null || (chunk.length - used) < size) {
+				//everything copied since begin() must stay together in the same chunk
+				final int pending = used - start;
+				final byte[] newChunk = new byte[(size + pending) > CHUNK_SIZE ? (size + pending) : CHUNK_SIZE];
+				if (pending > 0)
+					System.arraycopy(chunk, start, newChunk, 0, pending);
+				chunk = newChunk;
+				start = 0;
+				used = pending;
+			}
+			Serializer.serializeInt(chunk, used, length);
+			if (length > 0)
+				is.readBytes(chunk, used + 4, length);
+			used += size;
+		}
+	}
+	
+	static Song deserializeCompact(SerializerInputStream is, StringTable table, LazyHeap heap) throws IOException {
+		String directory, artist, album;
+		int track, lengthMS, year;
+		//NEVER change this order! (changing will destroy existing lists)
+		directory = table.deserialize(is);
+		heap.begin();
+		heap.copyString(is); //name
+		heap.copyString(is); //title
+		artist = table.deserialize(is);
+		album = table.deserialize(is);
+		track = Serializer.deserializeVarInt(is);
+		lengthMS = Serializer.deserializeVarInt(is);
+		year = Serializer.deserializeVarInt(is);
+		final int flags = Serializer.deserializeVarInt(is);
+		final byte[] data = heap.chunk;
+		final int offset = heap.start;
+		if (Serializer.deserializeInt(data, offset) < 0)
+			throw new IOException();
+		if (directory == null || (flags & FLAG_UNRESOLVED) != 0) {
+			//URLs and placeholders are few, and MetadataResolver replaces the titles of the
+			//placeholders from another thread, so they are decoded right away
+			heap.rewind();
+			final String name = Serializer.deserializeString(data, offset);
+			final String title = Serializer.deserializeString(data, offset + 4 + Serializer.deserializeInt(data, offset));
+			return new Song(directory, name, title, artist, album, track, lengthMS, year, (flags & FLAG_UNRESOLVED) != 0);
+		}
+		return new Song(directory, data, offset, artist, album, track, lengthMS, year);
 	}
 	
 	public static String formatTime(int timeMS) {
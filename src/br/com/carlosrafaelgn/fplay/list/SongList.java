@@ -39,14 +39,18 @@ import android.view.ViewGroup;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 
 import br.com.carlosrafaelgn.fplay.activity.MainHandler;
@@ -54,10 +58,15 @@ import br.com.carlosrafaelgn.fplay.playback.Player;
 import br.com.carlosrafaelgn.fplay.ui.SongView;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter.Comparer;
+import br.com.carlosrafaelgn.fplay.util.RecordReader;
+import br.com.carlosrafaelgn.fplay.util.RecordWriter;
 import br.com.carlosrafaelgn.fplay.util.Serializer;
+import br.com.carlosrafaelgn.fplay.util.SerializerInputStream;
+import br.com.carlosrafaelgn.fplay.util.SerializerOutputStream;
+import br.com.carlosrafaelgn.fplay.util.StorageWriter;
 
 //All methods of this class MUST BE called from the main thread, except those otherwise noted!!!
-public final class SongList extends BaseList<Song> implements FileFetcher.Listener, Comparer<Song> {
+public final class SongList extends BaseList<Song> implements FileFetcher.Listener {
 	public static final int SORT_BY_TITLE = 0;
 	public static final int SORT_BY_ARTIST = 1;
 	public static final int SORT_BY_ALBUM = 2;
@@ -65,18 +74,44 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 	public static final int HOW_PREVIOUS = -3;
 	public static final int HOW_NEXT_MANUAL = -2;
 	public static final int HOW_NEXT_AUTO = -1;
+	private static final int MAX_ADDER_WORKERS = 4;
+	private static final long ADDER_WORKER_IDLE_TIMEOUT_MS = 1000;
+	private static final int MAX_RESOLVED_SONGS_WHILE_ADDING = 64;
+	private static final int VERSION = 0x0100;
+	private static final int VERSION_JOURNALED_COMPACT = 0x0102;
+	private static final int OP_ADD = 1;
+	private static final int OP_REMOVE = 2;
+	private static final int OP_MOVE = 3;
+	private static final int MIN_JOURNAL_LENGTH_TO_COMPACT = 64 * 1024;
+	private static final String FILE_NAME = "_List";
+	private static final String JOURNAL_FILE_NAME = "_ListJournal";
 	private volatile int adding;
 	private int currentShuffledItemIndex, shuffledItemsAlreadyPlayed, indexOfPreviouslyDeletedCurrentShuffledItem, sortMode;
+	//Song.listIndex is only valid while listIndexVersion == modificationVersion (it is rebuilt
+	//on demand), whereas Song.shuffledIndex is kept up to date along with shuffledList
+	private int listIndexVersion;
 	private boolean repeatOne;
 	public boolean selecting, moving;
 	private Song[] shuffledList;
 	public Song possibleNextSong;
+	//the list is stored as a snapshot (FILE_NAME) followed by a journal (JOURNAL_FILE_NAME) of
+	//the songs added, removed and moved since the snapshot was written (the changes are kept in
+	//pendingRecords until the next call to serialize)
+	private ByteArrayOutputStream pendingRecords;
+	private RecordWriter pendingRecordWriter;
+	private int journalId;
+	private volatile long snapshotLength;
+	private long journalLength;
+	private boolean journaling, mustCompact;
+	//only used by the storage writer thread
+	private boolean journalBroken;
 	private static final SongList theSongList = new SongList();
 	
 	private SongList() {
 		super(Song.class);
 		this.adding = 0;
 		this.indexOfPreviouslyDeletedCurrentShuffledItem = -1;
+		this.listIndexVersion = modificationVersion - 1;
 	}
 	
 	public static SongList getInstance() {
@@ -89,8 +124,9 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 		try {
 			addingStarted();
 			(new Thread("List Deserializer Thread") {
-				private boolean done;
-				private int current;
+				private boolean done, upToDate;
+				private int current, journalId;
+				private long snapshotLength, journalLength;
 				private Song[] songs;
 				private Throwable ex;
 				@Override
@@ -98,22 +134,53 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 					if (done) {
 						if (songs == null)
 							songs = new Song[0];
-						deserializationEnded(songs, current, entireListBeingLoaded, append, play, ex);
+						if (path == null) {
+							//the songs added before the list was loaded are not in the snapshot
+							final boolean upToDate = (this.upToDate && SongList.this.count == 0);
+							journaling = false;
+							deserializationEnded(songs, current, entireListBeingLoaded, append, play, ex);
+							journalLoaded(journalId, snapshotLength, journalLength, upToDate);
+						} else {
+							deserializationEnded(songs, current, entireListBeingLoaded, append, play, ex);
+						}
 						songs = null;
 						ex = null;
 					} else {
 						FileInputStream fs = null;
-						BufferedInputStream bs = null;
+						SerializerInputStream bs = null;
 						try {
-							fs = context.openFileInput((path == null) ? "_List" : path);
-							bs = new BufferedInputStream(fs, 4096);
+							fs = context.openFileInput((path == null) ? FILE_NAME : path);
+							bs = new SerializerInputStream(fs, 4096);
 							current = Serializer.deserializeInt(bs);
 							final int version = Serializer.deserializeInt(bs);
+							//VERSION is used by playlists, and by the main list written by older versions
+							final boolean journaled = (version == VERSION_JOURNALED_COMPACT);
+							if (journaled)
+								journalId = Serializer.deserializeInt(bs);
 							final int count = Serializer.deserializeInt(bs);
-							if (version == 0x0100 && count > 0) {
+							if ((version == VERSION || journaled) && count > 0) {
 								songs = new Song[count];
-								for (int i = 0; i < count; i++)
-									songs[i] = Song.deserialize(bs);
+								if (journaled) {
+									//names and titles are only decoded when the songs are displayed,
+									//played or sorted (see Song.materialize())
+									final Song.StringTable table = new Song.StringTable();
+									final Song.LazyHeap heap = new Song.LazyHeap();
+									for (int i = 0; i < count; i++)
+										songs[i] = Song.deserializeCompact(bs, table, heap);
+								} else {
+									for (int i = 0; i < count; i++)
+										songs[i] = Song.deserialize(bs);
+								}
+							}
+							if (path == null && journaled) {
+								snapshotLength = context.getFileStreamPath(FILE_NAME).length();
+								final ArrayList<Song> list = new ArrayList<>((songs == null) ? 0 : songs.length);
+								if (songs != null)
+									list.addAll(Arrays.asList(songs));
+								//a negative length means the journal could not be entirely replayed
+								journalLength = replayJournal(context, journalId, list);
+								songs = list.toArray(new Song[list.size()]);
+								upToDate = (journalLength >= 0);
 							}
 							done = true;
 							addingEnded();
@@ -186,122 +253,243 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 		}
 		if (files != null && count > files.length)
 			count = files.length;
-		class Closure implements MainHandler.Callback {
-			public final Song[] songs;
-			private int idx, positionToSelect;
-			private boolean firstTime;
-			private final boolean clearList, playAfterwards;
-			Closure(int count, boolean clearList, boolean playAfterwards) {
-				songs = new Song[count];
-				idx = 0;
-				firstTime = true;
-				this.clearList = clearList;
-				this.playAfterwards = playAfterwards;
-			}
-			@Override
-			public boolean handleMessage(Message msg) {
-				if (Player.state >= Player.STATE_TERMINATING)
-					return true;
-				if (firstTime) {
-					if (clearList)
-						clear();
-					positionToSelect = getCount();
+		final Adder adder = new Adder(count, play, isAddingFolder, addAsURL);
+		if (files != null) {
+			for (int i = 0; i < count && Player.state < Player.STATE_TERMINATING; i++)
+				adder.addFile(files[i]);
+		} else {
+			while (iterator.hasNext() && Player.state < Player.STATE_TERMINATING)
+				adder.addFile(iterator.next());
+		}
+		adder.finish();
+	}
+
+	public Adder createAdder(boolean play, boolean isAddingFolder) {
+		return new Adder(LIST_DELTA, play, isAddingFolder, false);
+	}
+
+	//Adds songs to the list, from any thread other than the main thread, while the files are
+	//still being fetched (addFile, onFilesFetchedBatch and finish must be called from the same
+	//thread)
+	//
+	//Extracting the metadata is mostly bound by I/O latency, so the songs are created by a few
+	//worker threads, each one with its own buffer, and are added to the list in the same order
+	//their files were given, as soon as all the songs before them are ready (only the first
+	//screenful of songs, MAX_RESOLVED_SONGS_WHILE_ADDING, is fully resolved right away: the
+	//workers look the files after those up in the media library, and add placeholders for the
+	//ones not found there, see MetadataResolver)
+	public final class Adder implements FileFetcher.BatchListener, MainHandler.Callback {
+		private final boolean clearList, playAfterwards, addAsURL;
+		private final int maxWorkers;
+		//files[i] is set back to null as soon as songs[i] is ready (songs[i] is left null when
+		//the song could not be created)
+		private FileSt[] files;
+		private Song[] songs;
+		private int count, nextFile, ready, notified, workers, idleWorkers, idx, positionToSelect;
+		private boolean finished, firstTime;
+
+		private Adder(int capacity, boolean play, boolean isAddingFolder, boolean addAsURL) {
+			this.clearList = (play && isAddingFolder && Player.clearListWhenPlayingFolders);
+			this.playAfterwards = play;
+			this.addAsURL = addAsURL;
+			int maxWorkers = Runtime.getRuntime().availableProcessors();
+			if (maxWorkers < 2)
+				maxWorkers = 2;
+			else if (maxWorkers > MAX_ADDER_WORKERS)
+				maxWorkers = MAX_ADDER_WORKERS;
+			this.maxWorkers = maxWorkers;
+			this.files = new FileSt[capacity];
+			this.songs = new Song[capacity];
+			this.firstTime = true;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void addFile(FileSt file) {
+			if (file.isDirectory)
+				return;
+			final Song song = (addAsURL ? new Song(file.path, file.name) : null);
+			synchronized (this) {
+				final int count = this.count;
+				if (count >= songs.length) {
+					final int capacity = count + (count >> 1) + LIST_DELTA;
+					files = Arrays.copyOf(files, capacity);
+					songs = Arrays.copyOf(songs, capacity);
 				}
-				int localCount = msg.what;
-				if (localCount > songs.length)
-					localCount = songs.length;
-				if (idx < localCount) {
-					add(-1, songs, idx, localCount - idx);
-					idx = localCount;
+				this.count = count + 1;
+				if (song != null) {
+					songs[count] = song;
+					advanceReady();
+					return;
 				}
-				if (firstTime) {
-					firstTime = false;
-					Player.setSelectionAfterAdding(positionToSelect);
-					if (playAfterwards)
-						Player.play(positionToSelect);
+				files[count] = file;
+				if (idleWorkers > 0) {
+					notifyAll();
+				} else if (workers < maxWorkers) {
+					workers++;
+					(new Thread("Song Adder Worker Thread") {
+						@Override
+						public void run() {
+							work();
+						}
+					}).start();
 				}
-				return true;
 			}
 		}
-		if (count > 0) {
-			final Closure c = new Closure(count, play && isAddingFolder && Player.clearListWhenPlayingFolders, play);
-			int f = 0;
-			if (addAsURL) {
-				if (files != null) {
-					for (int i = 0; i < count; i++) {
-						if (!files[i].isDirectory) {
-							c.songs[f] = new Song(files[i].path, files[i].name);
-							f++;
-							if ((f & 3) == 1) {
-								if (Player.state >= Player.STATE_TERMINATING)
-									break;
-								MainHandler.sendMessage(c, f);
-							}
+
+		private void work() {
+			final byte[][] tmpPtr = new byte[][] { new byte[256] };
+			for (;;) {
+				final int i;
+				final FileSt file;
+				synchronized (this) {
+					if (nextFile >= count && !finished && Player.state < Player.STATE_TERMINATING) {
+						//do not keep idle threads around in case the files stop coming
+						idleWorkers++;
+						try {
+							wait(ADDER_WORKER_IDLE_TIMEOUT_MS);
+						} catch (InterruptedException ex) {
+							ex.printStackTrace();
 						}
+						idleWorkers--;
 					}
-				} else {
-					while (iterator.hasNext()) {
-						final FileSt file = iterator.next();
-						if (!file.isDirectory) {
-							c.songs[f] = new Song(file.path, file.name);
-							f++;
-							if ((f & 3) == 1) {
-								if (Player.state >= Player.STATE_TERMINATING)
-									break;
-								MainHandler.sendMessage(c, f);
-							}
-						}
+					if (nextFile >= count || Player.state >= Player.STATE_TERMINATING) {
+						workers--;
+						notifyAll();
+						return;
 					}
+					i = nextFile++;
+					file = files[i];
 				}
-			} else {
-				final byte[][] tmpPtr = new byte[][] { new byte[256] };
-				if (files != null) {
-					for (int i = 0; i < count; i++) {
-						if (!files[i].isDirectory) {
-							c.songs[f] = new Song(files[i], tmpPtr);
-							f++;
-							if ((f & 3) == 1) {
-								if (Player.state >= Player.STATE_TERMINATING)
-									break;
-								MainHandler.sendMessage(c, f);
-							}
-						}
+				Song song = null;
+				try {
+					if (i < MAX_RESOLVED_SONGS_WHILE_ADDING) {
+						song = new Song(file, tmpPtr);
+					} else {
+						song = new Song(file);
+						if (song.unresolved)
+							MetadataResolver.resolve(song);
 					}
-				} else {
-					while (iterator.hasNext()) {
-						final FileSt file = iterator.next();
-						if (!file.isDirectory) {
-							c.songs[f] = new Song(file, tmpPtr);
-							f++;
-							if ((f & 3) == 1) {
-								if (Player.state >= Player.STATE_TERMINATING)
-									break;
-								MainHandler.sendMessage(c, f);
-							}
-						}
+				} catch (Throwable ex) {
+					ex.printStackTrace();
+				}
+				synchronized (this) {
+					songs[i] = song;
+					files[i] = null;
+					advanceReady();
+				}
+			}
+		}
+
+		private void advanceReady() {
+			int ready = this.ready;
+			while (ready < count && files[ready] == null)
+				ready++;
+			if (ready == this.ready)
+				return;
+			this.ready = ready;
+			//let the first song be added as soon as possible
+			if ((notified == 0 || (ready - notified) >= 4) && Player.state < Player.STATE_TERMINATING) {
+				notified = ready;
+				MainHandler.sendMessage(this, ready);
+			}
+		}
+
+		@Override
+		public void onFilesFetchedBatch(FileFetcher fetcher, FileSt[] files, int offset, int count) {
+			count += offset;
+			for (int i = offset; i < count && Player.state < Player.STATE_TERMINATING; i++)
+				addFile(files[i]);
+		}
+
+		public void finish() {
+			final int ready;
+			synchronized (this) {
+				finished = true;
+				notifyAll();
+				while (workers > 0) {
+					try {
+						wait();
+					} catch (InterruptedException ex) {
+						ex.printStackTrace();
 					}
 				}
+				ready = this.ready;
+			}
+			if (ready > 0 && Player.state < Player.STATE_TERMINATING)
+				MainHandler.sendMessage(this, ready);
+			addingEnded();
+		}
+
+		@Override
+		public boolean handleMessage(Message msg) {
+			if (Player.state >= Player.STATE_TERMINATING)
+				return true;
+			if (firstTime) {
+				if (clearList)
+					clear();
+				positionToSelect = SongList.this.count;
+			}
+			synchronized (this) {
+				int localCount = msg.what;
+				if (localCount > ready)
+					localCount = ready;
+				int i = idx;
+				while (i < localCount) {
+					//skip the songs that could not be created
+					while (i < localCount && songs[i] == null)
+						i++;
+					int j = i;
+					while (j < localCount && songs[j] != null)
+						j++;
+					if (j > i)
+						add(-1, songs, i, j - i);
+					i = j;
+				}
+				if (idx < localCount)
+					idx = localCount;
+			}
+			if (firstTime) {
+				firstTime = false;
+				Player.setSelectionAfterAdding(positionToSelect);
+				if (playAfterwards)
+					Player.play(positionToSelect);
 			}
-			if (Player.state < Player.STATE_TERMINATING)
-				MainHandler.sendMessage(c, f);
+			return true;
 		}
-		addingEnded();
 	}
 
 	//--------------------------------------------------------------------------------------------
 	
-	private void fullSerialization(Context context, String path) throws IOException {
+	//songs may be a copy of items, so this can be called from any thread
+	private static void writeSnapshot(Context context, String fileName, Song[] songs, int count, int current, boolean journaled, int journalId) throws IOException {
 		FileOutputStream fs = null;
 		BufferedOutputStream bs = null;
+		boolean finished = false;
 		try {
-			fs = context.openFileOutput((path == null) ? "_List" : path, 0);
-			bs = new BufferedOutputStream(fs, 4096);
+			fs = StorageWriter.startAtomicWrite(context, fileName);
+			bs = new SerializerOutputStream(fs, 4096);
 			Serializer.serializeInt(bs, current);
-			Serializer.serializeInt(bs, 0x0100);
-			Serializer.serializeInt(bs, count);
-			for (int i = 0; i < count; i++)
-				items[i].serialize(bs);
+			//only the main list has a journal and uses the compact format (the lists saved by the
+			//user keep the old format, as they may be loaded by older versions)
+			if (journaled) {
+				Serializer.serializeInt(bs, VERSION_JOURNALED_COMPACT);
+				Serializer.serializeInt(bs, journalId);
+				Serializer.serializeInt(bs, count);
+				final Song.StringTable table = new Song.StringTable();
+				for (int i = 0; i < count; i++)
+					songs[i].serializeCompact(bs, table);
+			} else {
+				Serializer.serializeInt(bs, VERSION);
+				Serializer.serializeInt(bs, count);
+				for (int i = 0; i < count; i++)
+					songs[i].serialize(bs);
+			}
 			bs.flush();
+			StorageWriter.finishAtomicWrite(context, fileName, fs);
+			finished = true;
 		} finally {
 			try {
 				if (bs != null)
@@ -315,36 +503,20 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 			} catch (Throwable ex) {
 				ex.printStackTrace();
 			}
+			if (!finished)
+				StorageWriter.abortAtomicWrite(context, fileName);
 		}
 	}
 	
-	public boolean serialize(Context context, String path) {
+	private static void serializeCurrent(Context context, int current) throws IOException {
 		RandomAccessFile rf = null;
 		try {
-			if (modificationVersion > 1 || path != null) {
-				fullSerialization(context, path);
-			} else {
-				try {
-					final File f = context.getFileStreamPath("_List");
-					rf = new RandomAccessFile(f, "rw");
-					rf.seek(0);
-					final byte[] buf = new byte[4];
-					Serializer.serializeInt(buf, 0, current);
-					rf.write(buf);
-				} catch (Throwable ex) {
-					try {
-						if (rf != null)
-							rf.close();
-					} catch (Throwable ex2) {
-						ex2.printStackTrace();
-					}
-					rf = null;
-					fullSerialization(context, null);
-					ex.printStackTrace();
-				}
-			}
-		} catch (Throwable ex) {
-			return false;
+			final File f = context.getFileStreamPath(FILE_NAME);
+			rf = new RandomAccessFile(f, "rw");
+			rf.seek(0);
+			final byte[] buf = new byte[4];
+			Serializer.serializeInt(buf, 0, current);
+			rf.write(buf);
 		} finally {
 			try {
 				if (rf != null)
@@ -353,11 +525,239 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 				ex.printStackTrace();
 			}
 		}
-		if (path == null)
-			modificationVersion = 1;
+	}
+	
+	private static void appendJournal(Context context, ByteArrayOutputStream records, boolean newJournal, int journalId) throws IOException {
+		FileOutputStream fs = null;
+		try {
+			fs = context.openFileOutput(JOURNAL_FILE_NAME, newJournal ? 0 : Context.MODE_APPEND);
+			//a new journal starts with the id of the snapshot it belongs to
+			if (newJournal)
+				Serializer.serializeInt(fs, journalId);
+			records.writeTo(fs);
+			fs.flush();
+		} finally {
+			try {
+				if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+	
+	//What must be written to FILE_NAME and to JOURNAL_FILE_NAME, created in the main thread
+	//and written in the storage writer thread
+	private final class ListJob extends StorageWriter.Job implements Runnable {
+		private final Song[] songs; //the new snapshot, or null to just update the journal
+		private final int count, journalId;
+		private int current;
+		private ByteArrayOutputStream records;
+		private boolean newJournal;
+		
+		public ListJob(Song[] songs, int count, int current, int journalId, ByteArrayOutputStream records, boolean newJournal) {
+			super(FILE_NAME);
+			this.songs = songs;
+			this.count = count;
+			this.current = current;
+			this.journalId = journalId;
+			this.records = records;
+			this.newJournal = newJournal;
+		}
+		
+		@Override
+		protected StorageWriter.Job coalesce(StorageWriter.Job older) {
+			if (songs != null || !(older instanceof ListJob))
+				return this;
+			//append this job's records to the older job, which may also contain a snapshot
+			final ListJob job = (ListJob)older;
+			job.current = current;
+			if (records != null) {
+				if (job.records == null) {
+					job.records = records;
+					job.newJournal = newJournal;
+				} else {
+					final byte[] buf = records.toByteArray();
+					job.records.write(buf, 0, buf.length);
+				}
+			}
+			return job;
+		}
+		
+		@Override
+		protected void write(Context context) {
+			try {
+				if (songs != null) {
+					writeSnapshot(context, FILE_NAME, songs, count, current, true, journalId);
+					//a journal left behind by a previous snapshot is ignored, because of its id,
+					//so there is no problem if the process dies before it is deleted
+					context.deleteFile(JOURNAL_FILE_NAME);
+					snapshotLength = context.getFileStreamPath(FILE_NAME).length();
+					journalBroken = false;
+				}
+				//until a new snapshot is written, nothing else can be trusted
+				if (journalBroken)
+					return;
+				if (records != null)
+					appendJournal(context, records, newJournal, journalId);
+				if (songs == null)
+					serializeCurrent(context, current);
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+				journalBroken = true;
+				MainHandler.postToMainThread(this);
+			}
+		}
+		
+		@Override
+		public void run() {
+			//the files could not be written, so a new snapshot must be written next time
+			invalidateJournal();
+		}
+	}
+	
+	//path == null means the main list, which is written in the background (see StorageWriter)
+	public boolean serialize(Context context, String path) {
+		if (path != null) {
+			try {
+				writeSnapshot(context, path, items, count, current, false, 0);
+				return true;
+			} catch (Throwable ex) {
+				return false;
+			}
+		}
+		final ListJob job;
+		if (!journaling) {
+			//the list has not been loaded yet
+			job = new ListJob(null, 0, current, journalId, null, false);
+		} else if (mustCompact) {
+			journalId++;
+			job = new ListJob(Arrays.copyOf(items, count), count, current, journalId, null, false);
+			journalLength = 0;
+			pendingRecords = null;
+			pendingRecordWriter = null;
+			mustCompact = false;
+		} else {
+			final boolean newJournal = (journalLength == 0);
+			if (pendingRecords != null)
+				journalLength += (newJournal ? 4 : 0) + pendingRecords.size();
+			job = new ListJob(null, 0, current, journalId, pendingRecords, newJournal);
+			pendingRecords = null;
+			pendingRecordWriter = null;
+		}
+		StorageWriter.post(context, job);
 		return true;
 	}
 	
+	private static long replayJournal(Context context, int journalId, ArrayList<Song> songs) {
+		FileInputStream fs = null;
+		BufferedInputStream bs = null;
+		try {
+			fs = context.openFileInput(JOURNAL_FILE_NAME);
+			bs = new SerializerInputStream(fs, 4096);
+			final long fileLength = context.getFileStreamPath(JOURNAL_FILE_NAME).length();
+			if (fileLength < 4 || Serializer.deserializeInt(bs) != journalId)
+				return -1;
+			final RecordReader reader = new RecordReader(bs, fileLength - 4);
+			while (reader.nextRecord())
+				replayRecord(reader, songs);
+			return (reader.isTruncated() ? -1 : fileLength);
+		} catch (Throwable ex) {
+			if (ex instanceof FileNotFoundException)
+				return 0;
+			//keep whatever has been replayed so far
+			ex.printStackTrace();
+			return -1;
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+			try {
+				if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+	
+	private static void replayRecord(RecordReader is, ArrayList<Song> songs) throws IOException {
+		final int op = is.read();
+		final int position = Serializer.deserializeInt(is);
+		final int count = Serializer.deserializeInt(is);
+		if (position < 0 || count <= 0 || position > songs.size())
+			throw new IOException();
+		switch (op) {
+		case OP_ADD:
+			final Song[] added = new Song[count];
+			for (int i = 0; i < count; i++)
+				added[i] = Song.deserialize(is);
+			songs.addAll(position, Arrays.asList(added));
+			break;
+		case OP_REMOVE:
+			if ((position + count) > songs.size())
+				throw new IOException();
+			songs.subList(position, position + count).clear();
+			break;
+		case OP_MOVE:
+			final int to = Serializer.deserializeInt(is);
+			if ((position + count) > songs.size() || to < 0 || to >= songs.size())
+				throw new IOException();
+			//same as BaseList.moveSelection()
+			final List<Song> range = songs.subList(position, position + count);
+			final Song[] moved = range.toArray(new Song[count]);
+			range.clear();
+			songs.addAll((to < position) ? to : (to - count + 1), Arrays.asList(moved));
+			break;
+		default:
+			throw new IOException();
+		}
+	}
+	
+	private void journalLoaded(int journalId, long snapshotLength, long journalLength, boolean upToDate) {
+		this.journalId = journalId;
+		this.snapshotLength = snapshotLength;
+		this.journalLength = ((journalLength < 0) ? 0 : journalLength);
+		pendingRecords = null;
+		pendingRecordWriter = null;
+		journaling = true;
+		//start a new snapshot if the journal cannot be trusted, or if the list changed
+		//before being loaded
+		mustCompact = !upToDate;
+	}
+	
+	private void invalidateJournal() {
+		mustCompact = true;
+		pendingRecords = null;
+		pendingRecordWriter = null;
+	}
+	
+	private OutputStream startRecord(int op, int position, int count) throws IOException {
+		if (!journaling || mustCompact)
+			return null;
+		if (pendingRecords == null) {
+			pendingRecords = new ByteArrayOutputStream(4096);
+			pendingRecordWriter = new RecordWriter(pendingRecords);
+		}
+		final OutputStream record = pendingRecordWriter.startRecord();
+		record.write(op);
+		Serializer.serializeInt(record, position);
+		Serializer.serializeInt(record, count);
+		return record;
+	}
+	
+	private void endRecord() throws IOException {
+		pendingRecordWriter.endRecord();
+		//once the journal gets too large, it is cheaper to write a new snapshot than to keep
+		//these records around (and to replay them later)
+		final long length = journalLength + pendingRecords.size();
+		if (length >= MIN_JOURNAL_LENGTH_TO_COMPACT && length >= (snapshotLength >> 1))
+			invalidateJournal();
+	}
+	
 	private void deserializationEnded(Song[] songs, int current, boolean entireListBeingLoaded, boolean append, boolean play, Throwable ex) {
 		final int originalCount = count;
 		int positionToSelect = -1;
@@ -373,10 +773,12 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 					clear();
 				}
 			}
-			if (songs.length == 0)
-				modificationVersion++; //increment here, since add() does not increment when count is 0
-			else
+			if (songs.length > 0) {
 				add(-1, songs, 0, songs.length);
+				//the placeholders saved along with the list (including the ones added by the
+				//journal) are only given to MetadataResolver once they are actually in the list
+				MetadataResolver.resolve(songs, 0, songs.length);
+			}
 			if (positionToSelect >= this.count) {
 				positionToSelect = -1;
 			} else if (positionToSelect >= 0) {
@@ -388,11 +790,27 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 				}
 				if (listObserver != null)
 					listObserver.centerItem(positionToSelect);
+				items[positionToSelect].materialize();
 			}
 		}
 		Player.songListDeserialized((positionToSelect >= 0) ? items[positionToSelect] : null, ((play && positionToSelect >= 0) ? positionToSelect : -1), positionToSelect, ex);
 	}
 
+	private int indexOfSong(Song s) {
+		if (listIndexVersion != modificationVersion) {
+			for (int i = count - 1; i >= 0; i--)
+				items[i].listIndex = i;
+			listIndexVersion = modificationVersion;
+		}
+		final int i = s.listIndex;
+		return ((i >= 0 && i < count && items[i] == s) ? i : -1);
+	}
+
+	private int shuffledIndexOf(Song s) {
+		final int i = s.shuffledIndex;
+		return ((i >= 0 && i < count && shuffledList[i] == s) ? i : -1);
+	}
+
 	private Song getRandomSongAndSetCurrentInternal(int how) {
 		if (shuffledItemsAlreadyPlayed >= count)
 			setRandomModeInternal(true);
@@ -406,12 +824,10 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 					how = 0;
 				} else {
 					s = items[how];
-					for (i = count - 1; i >= 0; i--) {
-						if (shuffledList[i] == s) {
-							current = how;
-							currentShuffledItemIndex = i;
-							break;
-						}
+					i = shuffledIndexOf(s);
+					if (i >= 0) {
+						current = how;
+						currentShuffledItemIndex = i;
 					}
 				}
 			} else if (how >= count) {
@@ -427,12 +843,10 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 				how = 0;
 		} else if (how >= 0 && how < count) {
 			s = items[how];
-			for (i = count - 1; i >= 0; i--) {
-				if (shuffledList[i] == s) {
-					current = how;
-					currentShuffledItemIndex = i;
-					break;
-				}
+			i = shuffledIndexOf(s);
+			if (i >= 0) {
+				current = how;
+				currentShuffledItemIndex = i;
 			}
 		}
 		indexOfPreviouslyDeletedCurrentItem = -1;
@@ -441,12 +855,10 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 			return null;
 		if (s == null) {
 			s = shuffledList[how];
-			for (i = count - 1; i >= 0; i--) {
-				if (items[i] == s) {
-					current = i;
-					currentShuffledItemIndex = how;
-					break;
-				}
+			i = indexOfSong(s);
+			if (i >= 0) {
+				current = i;
+				currentShuffledItemIndex = how;
 			}
 		}
 		if (!s.alreadyPlayed) {
@@ -500,6 +912,8 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 				}
 			}
 		//}
+		if (s != null)
+			s.materialize();
 		notifyDataSetChanged(-1, SELECTION_CHANGED);
 		return s;
 	}
@@ -525,8 +939,8 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 			if (capacity >= count) {
 				if (shuffledList == null)
 					shuffledList = new Song[capacity + LIST_DELTA];
-				else if (capacity > shuffledList.length || capacity <= (shuffledList.length - (2 * LIST_DELTA)))
-					shuffledList = Arrays.copyOf(shuffledList, capacity + LIST_DELTA);
+				else if (capacity > shuffledList.length || (capacity + LIST_DELTA) < (shuffledList.length >> 1))
+					shuffledList = Arrays.copyOf(shuffledList, capacity + (capacity >> 1) + LIST_DELTA);
 			}
 		//}
 	}
@@ -557,6 +971,8 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 				shuffledList[a] = shuffledList[b];
 				shuffledList[b] = s;
 			}
+			for (i = count - 1; i >= 0; i--)
+				shuffledList[i].shuffledIndex = i;
 		}
 		currentShuffledItemIndex = -1;
 		shuffledItemsAlreadyPlayed = 0;
@@ -569,12 +985,12 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 	}
 	
 	public void updateExtraInfo() {
-		//synchronized (currentAndCountMutex) {
-			//don't mess up with modificationVersion as it is not affected by this operation
-			for (int i = count - 1; i >= 0; i--)
-				items[i].updateExtraInfo();
-			//don't mess up with suffling as it is not affected by this operation
-		//}
+		//(don't mess up with modificationVersion as it is not affected by this operation)
+		for (int i = count - 1; i >= 0; i--)
+			items[i].clearDisplayStrings();
+		//the current song may have already been removed from the list
+		if (Player.localSong != null)
+			Player.localSong.clearDisplayStrings();
 		notifyCheckedChanged();
 	}
 	
@@ -582,21 +998,27 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 		//synchronized (currentAndCountMutex) {
 			sortMode = mode;
 			modificationVersion++;
+			//there is no point in journaling a sort, as it could move every song around
+			invalidateJournal();
 			final Song s = ((current >= 0 && current < count) ? items[current] : null);
-			ArraySorter.sort(items, 0, count, this);
+			//all comparers end up comparing titles, which must be decoded before ArraySorter's
+			//threads start
+			for (int i = count - 1; i >= 0; i--)
+				items[i].materialize();
+			ArraySorter.sort(items, 0, count, (mode == SORT_BY_ALBUM) ? albumComparer : ((mode == SORT_BY_ARTIST) ? artistComparer : titleComparer));
+			//modificationVersion was changed before sorting, so the indices must be rebuilt
+			listIndexVersion = modificationVersion - 1;
 			current = -1;
 			firstSel = -1;
 			lastSel = -1;
 			originalSel = -1;
 			if (s != null) {
-				for (int i = count - 1; i >= 0; i--) {
-					if (items[i] == s) {
-						current = i;
-						firstSel = i;
-						lastSel = i;
-						originalSel = i;
-						break;
-					}
+				final int i = indexOfSong(s);
+				if (i >= 0) {
+					current = i;
+					firstSel = i;
+					lastSel = i;
+					originalSel = i;
 				}
 			}
 			//don't mess up with suffling as it is not affected by this sorting
@@ -604,35 +1026,54 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 		notifyDataSetChanged(current, CONTENT_MOVED);
 	}
 	
-	@Override
-	public int compare(Song a, Song b) {
-		int r;
-		switch (sortMode) {
-		case SORT_BY_ALBUM:
-			r = a.album.compareToIgnoreCase(b.album);
+	//the keys are cached by each song (see Song.getTitleKey()), so sorting the same list
+	//again does not have to fold its strings again
+	private static final Comparer<Song> albumComparer = new Comparer<Song>() {
+		@Override
+		public int compare(Song a, Song b) {
+			int r = a.getAlbumKey().compareTo(b.getAlbumKey());
 			if (r == 0)
 				r = a.track - b.track;
 			if (r == 0)
-				return a.title.compareToIgnoreCase(b.title);
+				return a.getTitleKey().compareTo(b.getTitleKey());
 			return r;
-		case SORT_BY_ARTIST:
-			r = a.artist.compareToIgnoreCase(b.artist);
+		}
+	};
+	
+	private static final Comparer<Song> artistComparer = new Comparer<Song>() {
+		@Override
+		public int compare(Song a, Song b) {
+			int r = a.getArtistKey().compareTo(b.getArtistKey());
 			if (r == 0)
-				r = a.album.compareToIgnoreCase(b.album);
+				r = a.getAlbumKey().compareTo(b.getAlbumKey());
 			if (r == 0)
 				r = a.track - b.track;
 			if (r == 0)
-				return a.title.compareToIgnoreCase(b.title);
+				return a.getTitleKey().compareTo(b.getTitleKey());
 			return r;
 		}
-		r = a.title.compareToIgnoreCase(b.title);
-		if (r == 0)
-			return a.track - b.track;
-		return r;
-	}
+	};
+	
+	private static final Comparer<Song> titleComparer = new Comparer<Song>() {
+		@Override
+		public int compare(Song a, Song b) {
+			final int r = a.getTitleKey().compareTo(b.getTitleKey());
+			return ((r == 0) ? (a.track - b.track) : r);
+		}
+	};
 	
 	@Override
 	protected void addingItems(int position, int count) {
+		try {
+			final OutputStream record = startRecord(OP_ADD, position, count);
+			if (record != null) {
+				for (int i = 0; i < count; i++)
+					items[position + i].serialize(record);
+				endRecord();
+			}
+		} catch (Throwable ex) {
+			invalidateJournal();
+		}
 		if (shuffledList == null)
 			return;
 		setShuffledCapacity(this.count);
@@ -646,48 +1087,79 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 			shuffledList[a] = shuffledList[b];
 			shuffledList[b] = s;
 		}
+		for (int i = this.count - 1; i >= initial; i--)
+			shuffledList[i].shuffledIndex = i;
 	}
 	
 	@Override
 	protected void removingItems(int position, int count) {
+		try {
+			final OutputStream record = startRecord(OP_REMOVE, position, count);
+			if (record != null)
+				endRecord();
+		} catch (Throwable ex) {
+			invalidateJournal();
+		}
+		//mark the songs being removed (which also tells MetadataResolver not to bother with
+		//them), and then remove all of them from shuffledList at once (instead of searching
+		//for, and shifting shuffledList after, each one of them)
+		final int end = position + count;
+		for (int i = position; i < end; i++)
+			items[i].removed = true;
+		MetadataResolver.forgetRemovedSongs();
 		if (shuffledList == null)
 			return;
-		int shuffledCount = this.count;
-		count += position;
-		while (position < count) {
-			final Song s = items[position];
-			for (int i = shuffledCount - 1; i >= 0; i--) {
-				if (shuffledList[i] == s) {
-					shuffledCount--;
-					if (indexOfPreviouslyDeletedCurrentShuffledItem >= 0) {
-						if (indexOfPreviouslyDeletedCurrentShuffledItem == i)
-							indexOfPreviouslyDeletedCurrentShuffledItem = i;
-						else if (indexOfPreviouslyDeletedCurrentShuffledItem > i)
-							indexOfPreviouslyDeletedCurrentShuffledItem--;
-						if (indexOfPreviouslyDeletedCurrentShuffledItem >= shuffledCount)
-							indexOfPreviouslyDeletedCurrentShuffledItem = -1;
-					}
-					if (currentShuffledItemIndex == i) {
-						indexOfPreviouslyDeletedCurrentShuffledItem = i;
-						currentShuffledItemIndex = -1;
-					} else if (currentShuffledItemIndex > i) {
-						currentShuffledItemIndex--;
-					}
-					if (currentShuffledItemIndex >= shuffledCount)
-						currentShuffledItemIndex = -1;
-					System.arraycopy(shuffledList, i + 1, shuffledList, i, shuffledCount - i);
-					shuffledList[shuffledCount] = null;
-					if (s.alreadyPlayed)
-						shuffledItemsAlreadyPlayed--;
-					break;
-				}
+		final int shuffledCount = this.count;
+		final boolean currentRemoved = (currentShuffledItemIndex >= 0 && currentShuffledItemIndex < shuffledCount && shuffledList[currentShuffledItemIndex].removed);
+		int newCurrent = -1, newPreviouslyDeleted = -1, w = 0;
+		for (int i = 0; i < shuffledCount; i++) {
+			final Song s = shuffledList[i];
+			//every index moves back as many positions as the number of songs removed before it
+			if (i == currentShuffledItemIndex) {
+				if (currentRemoved)
+					newPreviouslyDeleted = w;
+				else
+					newCurrent = w;
+			} else if (i == indexOfPreviouslyDeletedCurrentShuffledItem && !currentRemoved) {
+				newPreviouslyDeleted = w;
+			}
+			if (s.removed) {
+				if (s.alreadyPlayed)
+					shuffledItemsAlreadyPlayed--;
+			} else {
+				s.shuffledIndex = w;
+				shuffledList[w++] = s;
 			}
-			position++;
+		}
+		for (int i = w; i < shuffledCount; i++)
+			shuffledList[i] = null;
+		currentShuffledItemIndex = ((newCurrent >= w) ? -1 : newCurrent);
+		//when the current song is removed, the next one takes its place (unless there is no
+		//next one)
+		indexOfPreviouslyDeletedCurrentShuffledItem = ((newPreviouslyDeleted >= w) ? -1 : newPreviouslyDeleted);
+	}
+	
+	@Override
+	protected void movingItems(int from, int count, int to) {
+		try {
+			final OutputStream record = startRecord(OP_MOVE, from, count);
+			if (record != null) {
+				Serializer.serializeInt(record, to);
+				endRecord();
+			}
+		} catch (Throwable ex) {
+			invalidateJournal();
 		}
 	}
 	
 	@Override
 	protected void clearingItems() {
+		//the next snapshot will be smaller than the journal
+		invalidateJournal();
+		for (int i = count - 1; i >= 0; i--)
+			items[i].removed = true;
+		//do not let the songs still waiting to be resolved outlive the list
+		MetadataResolver.forgetRemovedSongs();
 		if (shuffledList == null)
 			return;
 		for (int i = count - 1; i >= 0; i--)
@@ -714,7 +1186,12 @@ public final class SongList extends BaseList<Song> implements FileFetcher.Listen
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
 		final SongView view = ((convertView != null) ? (SongView)convertView : new SongView(Player.getService()));
-		view.setItemState(items[position], position, getItemState(position));
+		final Song song = items[position];
+		song.materialize();
+		//visible placeholders are resolved before all the others
+		if (song.unresolved)
+			MetadataResolver.prioritize(song);
+		view.setItemState(song, position, getItemState(position));
 		return view;
 	}
 	
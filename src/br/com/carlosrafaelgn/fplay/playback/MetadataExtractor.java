@@ -34,6 +34,7 @@ package br.com.carlosrafaelgn.fplay.playback;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.Arrays;
 import java.util.Locale;
 
 import br.com.carlosrafaelgn.fplay.list.FileSt;
@@ -55,24 +56,40 @@ public final class MetadataExtractor {
 	private static final int TRACK_B = 0x08;
 	private static final int YEAR_B = 0x10;
 	private static final int LENGTH_B = 0x20;
+	private static final int BLOCK_SIZE = 8192;
+	private static final int MAX_MPEG_SYNC_SEARCH = 0x10000;
+	private static final int MAX_MPEG_FRAME_LENGTH = 4096;
+	//bit rates, in kbps, for MPEG 1 layers I, II and III, MPEG 2/2.5 layer I and MPEG 2/2.5 layers II and III
+	private static final int[][] MPEG_BITRATES = {
+		{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448, 0 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384, 0 },
+		{ 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256, 0 },
+		{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0 }
+	};
+	//sample rates for MPEG 2.5, reserved, MPEG 2 and MPEG 1
+	private static final int[][] MPEG_SAMPLE_RATES = {
+		{ 11025, 12000, 8000 },
+		{ 0, 0, 0 },
+		{ 22050, 24000, 16000 },
+		{ 44100, 48000, 32000 }
+	};
+	private static final int MAX_VORBIS_KEY_LENGTH = 11; //TRACKNUMBER
+	//values longer than this (Vorbis comments or MP4 items) are skipped without being read
+	private static final int MAX_TAG_VALUE_LENGTH = 0x10000;
+	private static final int FORMAT_ID3 = 0;
+	private static final int FORMAT_FLAC = 1;
+	private static final int FORMAT_OGG = 2;
+	private static final int FORMAT_MP4 = 3;
 	
-	private static String readV2Frame(RandomAccessFile f, int frameSize, byte[][] tmpPtr) throws IOException {
-		if (frameSize < 2) {
-			f.skipBytes(frameSize);
+	private static String decodeV2Frame(byte[] tmp, int offset, int frameSize) throws IOException {
+		if (frameSize < 2)
 			return null;
-		}
-		final int encoding = f.read();
+		final int encoding = tmp[offset];
+		offset++;
 		frameSize--; //discount the encoding
-		if (encoding < 0 || encoding > 3) {
-			f.skipBytes(frameSize);
+		if (encoding < 0 || encoding > 3)
 			return null;
-		}
-		byte[] tmp = tmpPtr[0];
-		if (frameSize > tmp.length) {
-			tmp = new byte[frameSize + 16];
-			tmpPtr[0] = tmp;
-		}
-		f.readFully(tmp, 0, frameSize);
 		//according to http://developer.android.com/reference/java/nio/charset/Charset.html
 		//the following charsets are ALWAYS available:
 		//ISO-8859-1
@@ -84,22 +101,39 @@ public final class MetadataExtractor {
 		String ret = null;
 		switch (encoding) {
 		case 0: //ISO-8859-1
-			ret = new String(tmp, 0, frameSize, "ISO-8859-1");
+			ret = new String(tmp, offset, frameSize, "ISO-8859-1");
 			break;
 		case 1: //UCS-2 (UTF-16 encoded Unicode with BOM), in ID3v2.2 and ID3v2.3
 		case 2: //UTF-16BE encoded Unicode without BOM, in ID3v2.4
-			ret = new String(tmp, 0, frameSize, "UTF-16");
+			ret = new String(tmp, offset, frameSize, "UTF-16");
 			break;
 		case 3: //UTF-8 encoded Unicode, in ID3v2.4
 			//BOM
-			ret = ((tmp[0] == (byte)0xef && tmp[1] == (byte)0xbb && tmp[2] == (byte)0xbf) ?
-					new String(tmp, 3, frameSize - 3, "UTF-8") :
-					new String(tmp, 0, frameSize, "UTF-8"));
+			ret = ((frameSize >= 3 && tmp[offset] == (byte)0xef && tmp[offset + 1] == (byte)0xbb && tmp[offset + 2] == (byte)0xbf) ?
+					new String(tmp, offset + 3, frameSize - 3, "UTF-8") :
+					new String(tmp, offset, frameSize, "UTF-8"));
 			break;
 		}
 		return ((ret != null && ret.length() == 0) ? null : ret);
 	}
 	
+	//reads as many bytes as available, up to length, without throwing at the end of the file
+	private static int readAt(RandomAccessFile f, long position, byte[] tmp, int length) throws IOException {
+		f.seek(position);
+		int total = 0;
+		while (total < length) {
+			final int read = f.read(tmp, total, length - total);
+			if (read < 0)
+				break;
+			total += read;
+		}
+		return total;
+	}
+	
+	private static int readBE32(byte[] tmp, int offset) {
+		return ((int)tmp[offset] << 24) | (((int)tmp[offset + 1] & 0xff) << 16) | (((int)tmp[offset + 2] & 0xff) << 8) | ((int)tmp[offset + 3] & 0xff);
+	}
+	
 	private static String[] extractID3v1(RandomAccessFile f, int found, String[] fields, byte[] tmp) {
 		try {
 			f.seek(f.length() - 128);
@@ -169,7 +203,124 @@ public final class MetadataExtractor {
 		return fields;
 	}
 	
+	//returns the length of the MPEG audio frame starting with the given header, or 0 if the
+	//header is not valid
+	//http://www.mp3-tech.org/programmer/frame_header.html
+	private static int mpegFrameLength(int header) {
+		if ((header & 0xffe00000) != 0xffe00000) //frame sync
+			return 0;
+		final int version = (header >>> 19) & 3; //0 = MPEG 2.5, 1 = reserved, 2 = MPEG 2, 3 = MPEG 1
+		final int layer = (header >>> 17) & 3; //0 = reserved, 1 = layer III, 2 = layer II, 3 = layer I
+		final int bitrateIndex = (header >>> 12) & 15;
+		final int sampleRateIndex = (header >>> 10) & 3;
+		if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3)
+			return 0;
+		final int bitrate = mpegBitrate(version, layer, bitrateIndex) * 1000;
+		final int sampleRate = MPEG_SAMPLE_RATES[version][sampleRateIndex];
+		final int padding = (header >>> 9) & 1;
+		if (layer == 3)
+			return (((12 * bitrate) / sampleRate) + padding) * 4;
+		return ((((layer == 1 && version != 3) ? 72 : 144) * bitrate) / sampleRate) + padding;
+	}
+	
+	private static int mpegBitrate(int version, int layer, int bitrateIndex) {
+		return MPEG_BITRATES[(version == 3) ? (3 - layer) : ((layer == 3) ? 3 : 4)][bitrateIndex];
+	}
+	
+	private static long extractMPEGLength(RandomAccessFile f, long position, byte[] tmp) throws IOException {
+		final long fileLength = f.length();
+		final long end = position + MAX_MPEG_SYNC_SEARCH;
+		while (position < end) {
+			final int length = readAt(f, position, tmp, tmp.length);
+			if (length < 4)
+				return -1;
+			int i = 0, header = 0, frameLength = 0;
+			for (; i <= length - 4; i++) {
+				if (tmp[i] != (byte)0xff)
+					continue;
+				header = readBE32(tmp, i);
+				if ((frameLength = mpegFrameLength(header)) == 0)
+					continue;
+				//read the block again, if necessary, so that the entire first frame can be parsed
+				if (i != 0 && (i + MAX_MPEG_FRAME_LENGTH) > length && (position + length) < fileLength)
+					break;
+				//make sure this is not a false sync by checking the header of the next frame
+				if ((i + frameLength + 4) <= length) {
+					final int nextHeader = readBE32(tmp, i + frameLength);
+					if (mpegFrameLength(nextHeader) == 0 || (nextHeader & 0xfffe0c00) != (header & 0xfffe0c00))
+						continue;
+				}
+				break;
+			}
+			if (i > length - 4) {
+				//keep a few bytes, in case a header has been split between two blocks
+				position += length - 3;
+				continue;
+			}
+			if (i != 0 && (i + MAX_MPEG_FRAME_LENGTH) > length && (position + length) < fileLength) {
+				position += i;
+				continue;
+			}
+			
+			final int version = (header >>> 19) & 3;
+			final int layer = (header >>> 17) & 3;
+			final int sampleRate = MPEG_SAMPLE_RATES[version][(header >>> 10) & 3];
+			final int samplesPerFrame = ((layer == 3) ? 384 : (((layer == 2) || (version == 3)) ? 1152 : 576));
+			final boolean mono = (((header >>> 6) & 3) == 3);
+			
+			//the Xing/Info header comes right after the side information of the first frame
+			//http://gabriel.mp3-tech.org/mp3infotag.html
+			int offset = i + 4 + ((version == 3) ? (mono ? 17 : 32) : (mono ? 9 : 17));
+			long samples = -1;
+			if ((offset + 16) <= length) {
+				final int id = readBE32(tmp, offset);
+				if (id == 0x58696e67 || id == 0x496e666f) { //Xing or Info
+					final int flags = readBE32(tmp, offset + 4);
+					if ((flags & 1) != 0) {
+						samples = ((long)readBE32(tmp, offset + 8) & 0xffffffffL) * (long)samplesPerFrame;
+						//the LAME tag, if present, comes right after the Xing/Info header, and
+						//tells how many samples were added by the encoder at both ends
+						offset += 8 + 4 + (((flags & 2) != 0) ? 4 : 0) + (((flags & 4) != 0) ? 100 : 0) + (((flags & 8) != 0) ? 4 : 0);
+						if ((offset + 24) <= length && readBE32(tmp, offset) == 0x4c414d45) { //LAME
+							final int delay = (((int)tmp[offset + 21] & 0xff) << 4) | (((int)tmp[offset + 22] & 0xff) >>> 4);
+							final int padding = (((int)tmp[offset + 22] & 0x0f) << 8) | ((int)tmp[offset + 23] & 0xff);
+							if (samples > (delay + padding))
+								samples -= (delay + padding);
+						}
+					}
+				}
+			}
+			//the VBRI header is always 32 bytes after the header of the first frame
+			offset = i + 4 + 32;
+			if (samples <= 0 && (offset + 18) <= length && readBE32(tmp, offset) == 0x56425249) //VBRI
+				samples = ((long)readBE32(tmp, offset + 14) & 0xffffffffL) * (long)samplesPerFrame;
+			if (samples > 0)
+				return (samples * 1000L) / (long)sampleRate;
+			
+			//assume the file is CBR, and estimate its length based on the bit rate of the first frame
+			long audioLength = fileLength - (position + i);
+			if (fileLength >= 128 && readAt(f, fileLength - 128, tmp, 3) == 3 && tmp[0] == 0x54 && tmp[1] == 0x41 && tmp[2] == 0x47) //TAG
+				audioLength -= 128;
+			return ((audioLength > 0) ? ((audioLength * 8L) / (long)mpegBitrate(version, layer, (header >>> 12) & 15)) : -1);
+		}
+		return -1;
+	}
+	
 	private static String[] extractID3v2Andv1(RandomAccessFile f, byte[][] tmpPtr) throws IOException  {
+		//instead of reading the tag field by field, it is read in large blocks, which are then
+		//parsed in memory (in most files, a single read is enough to get all the text frames,
+		//as they usually come before any pictures)
+		byte[] tmp = tmpPtr[0];
+		if (tmp.length < BLOCK_SIZE) {
+			tmp = new byte[BLOCK_SIZE];
+			tmpPtr[0] = tmp;
+		}
+		//tmp holds the bytes of the file starting at blockPosition
+		long blockPosition = 0;
+		int blockLength = readAt(f, 0, tmp, tmp.length);
+		if (blockLength < 10)
+			return null;
+		
 		//struct _ID3v2TagHdr {
 		//public:
 		//	unsigned int hdr;
@@ -178,114 +329,115 @@ public final class MetadataExtractor {
 		//	unsigned char sizeBytes[4];
 		//} tagV2Hdr;
 		
-		//readInt() reads a big-endian 32-bit integer
-		final int hdr = f.readInt();
-		if ((hdr & 0xffffff00) != 0x49443300) //ID3
+		final int hdr = readBE32(tmp, 0);
+		if ((hdr & 0xffffff00) != 0x49443300) { //ID3
+			//there is no ID3v2 tag, so the audio probably starts right at the beginning
+			final String[] fields = new String[FIELD_COUNT];
+			final long lengthMS = extractMPEGLength(f, 0, tmp);
+			int found = 0;
+			if (lengthMS > 0) {
+				fields[LENGTH] = Long.toString(lengthMS);
+				found = LENGTH_B;
+			}
+			extractID3v1(f, found, fields, tmp);
+			for (int i = 0; i < FIELD_COUNT; i++) {
+				if (fields[i] != null)
+					return fields;
+			}
 			return null;
-		final int hdrRev = f.read();
-		final int flags = f.read();
-		final int sizeBytes0 = f.read();
-		final int sizeBytes1 = f.read();
-		final int sizeBytes2 = f.read();
-		final int sizeBytes3 = f.read();
-		int size = ((flags & 0x10) != 0 ? 10 : 0) + //footer presence flag
+		}
+		final int hdrRev = (int)tmp[4] & 0xff;
+		final int flags = (int)tmp[5] & 0xff;
+		final int size = ((flags & 0x10) != 0 ? 10 : 0) + //footer presence flag
 		(
-			(sizeBytes3 & 0x7f) |
-			((sizeBytes2 & 0x7f) << 7) |
-			((sizeBytes1 & 0x7f) << 14) |
-			((sizeBytes0 & 0x7f) << 21)
+			((int)tmp[9] & 0x7f) |
+			(((int)tmp[8] & 0x7f) << 7) |
+			(((int)tmp[7] & 0x7f) << 14) |
+			(((int)tmp[6] & 0x7f) << 21)
 		);
 		if ((hdr & 0xff) > 2 || hdrRev != 0) { //only rev 3 or greater supported
 			//http://id3.org/id3v2.3.0
 			//http://id3.org/id3v2.4.0-structure
 			//http://id3.org/id3v2.4.0-frames
 			final String[] fields = new String[FIELD_COUNT];
+			final long tagEnd = 10L + (long)size;
+			long position = 10;
 			int found = 0;
-			while (size > 0 && found != ALL_B) {
+			while ((position + 10) <= tagEnd && found != ALL_B) {
 				//struct _ID3v2FrameHdr {
 				//public:
 				//	unsigned int id;
 				//	unsigned int size;
 				//	unsigned short flags;
 				//} frame;
-				final int frameId = f.readInt();
-				final int frameSize = f.readInt();
+				if ((position + 10) > (blockPosition + blockLength)) {
+					blockPosition = position;
+					blockLength = readAt(f, position, tmp, (int)Math.min(tagEnd - position, (long)tmp.length));
+					if (blockLength < 10)
+						break;
+				}
+				int offset = (int)(position - blockPosition);
+				final int frameId = readBE32(tmp, offset);
+				final int frameSize = readBE32(tmp, offset + 4);
 				//skip the flags
-				f.readShort();
-				if (frameId == 0 || frameSize <= 0 || frameSize > size)
+				position += 10;
+				if (frameId == 0 || frameSize <= 0 || frameSize > (tagEnd - position))
 					break;
+				int field;
 				switch (frameId) {
 				case 0x54495432: //title - TIT2
-					if ((found & TITLE_B) == 0) {
-						fields[TITLE] = readV2Frame(f, frameSize, tmpPtr);
-						if (fields[TITLE] != null)
-							found |= TITLE_B;
-					} else {
-						f.skipBytes(frameSize);
-					}
+					field = TITLE;
 					break;
 				case 0x54504531: //artist - TPE1
-					if ((found & ARTIST_B) == 0) {
-						fields[ARTIST] = readV2Frame(f, frameSize, tmpPtr);
-						if (fields[ARTIST] != null)
-							found |= ARTIST_B;
-					} else {
-						f.skipBytes(frameSize);
-					}
+					field = ARTIST;
 					break;
 				case 0x54414c42: //album - TALB
-					if ((found & ALBUM_B) == 0) {
-						fields[ALBUM] = readV2Frame(f, frameSize, tmpPtr);
-						if (fields[ALBUM] != null)
-							found |= ALBUM_B;
-					} else {
-						f.skipBytes(frameSize);
-					}
+					field = ALBUM;
 					break;
 				case 0x5452434b: //track - TRCK
-					if ((found & TRACK_B) == 0) {
-						fields[TRACK] = readV2Frame(f, frameSize, tmpPtr);
-						if (fields[TRACK] != null)
-							found |= TRACK_B;
-					} else {
-						f.skipBytes(frameSize);
-					}
+					field = TRACK;
 					break;
 				case 0x54594552: //year - TYER
-					if ((found & YEAR_B) == 0) {
-						fields[YEAR] = readV2Frame(f, frameSize, tmpPtr);
-						if (fields[YEAR] != null)
-							found |= YEAR_B;
-					} else {
-						f.skipBytes(frameSize);
-					}
-					break;
 				case 0x54445243: //Recording time - TDRC
-					if ((found & YEAR_B) == 0) {
-						fields[YEAR] = readV2Frame(f, frameSize, tmpPtr);
-						if (fields[YEAR] != null) {
-							if (fields[YEAR].length() > 4)
-								fields[YEAR] = fields[YEAR].substring(0, 4);
-							found |= YEAR_B;
-						}
-					} else {
-						f.skipBytes(frameSize);
-					}
+					field = YEAR;
 					break;
 				case 0x544c454e: //length - TLEN
-					if ((found & LENGTH_B) == 0) {
-						fields[LENGTH] = readV2Frame(f, frameSize, tmpPtr);
-						if (fields[LENGTH] != null)
-							found |= LENGTH_B;
-					} else {
-						f.skipBytes(frameSize);
-					}
+					field = LENGTH;
 					break;
 				default:
-					f.skipBytes(frameSize);
+					field = -1;
 					break;
 				}
-				size -= (10 + frameSize);
+				//frames that are not needed are skipped without being read
+				if (field >= 0 && (found & (1 << field)) == 0) {
+					if ((position + frameSize) > (blockPosition + blockLength)) {
+						if (frameSize > tmp.length) {
+							tmp = new byte[frameSize + 16];
+							tmpPtr[0] = tmp;
+						}
+						blockPosition = position;
+						blockLength = readAt(f, position, tmp, (int)Math.min(tagEnd - position, (long)tmp.length));
+						if (blockLength < frameSize)
+							break;
+					}
+					offset = (int)(position - blockPosition);
+					String value = decodeV2Frame(tmp, offset, frameSize);
+					if (value != null) {
+						if (frameId == 0x54445243 && value.length() > 4)
+							value = value.substring(0, 4);
+						fields[field] = value;
+						found |= (1 << field);
+					}
+				}
+				position += frameSize;
+			}
+			if ((found & LENGTH_B) == 0) {
+				//no TLEN frame, so compute the length from the headers of the first frame
+				final long lengthMS = extractMPEGLength(f, tagEnd, tmpPtr[0]);
+				if (lengthMS > 0) {
+					fields[LENGTH] = Long.toString(lengthMS);
+					found |= LENGTH_B;
+				}
 			}
 			//try to extract ID3v1 only if there are any blank fields
 			return (((found & ALL_BUT_LENGTH_B) != ALL_BUT_LENGTH_B) ? extractID3v1(f, found, fields, tmpPtr[0]) : fields);
@@ -293,17 +445,531 @@ public final class MetadataExtractor {
 		return null;
 	}
 	
+	//Sequential reader that reads the file in large blocks (used by the FLAC, Ogg and MP4
+	//parsers, which, unlike ID3v2, do not know in advance how much of the file they need)
+	private static class BlockReader {
+		private final RandomAccessFile f;
+		private final byte[] tmp;
+		private long blockPosition;
+		private int blockLength, offset;
+		
+		public BlockReader(RandomAccessFile f, byte[] tmp) {
+			this.f = f;
+			this.tmp = tmp;
+		}
+		
+		public final long position() {
+			return blockPosition + offset;
+		}
+		
+		public final void seek(long position) {
+			if (position >= blockPosition && position <= (blockPosition + blockLength)) {
+				offset = (int)(position - blockPosition);
+			} else {
+				blockPosition = position;
+				blockLength = 0;
+				offset = 0;
+			}
+		}
+		
+		private boolean fill() throws IOException {
+			blockPosition += blockLength;
+			offset = 0;
+			blockLength = readAt(f, blockPosition, tmp, tmp.length);
+			return (blockLength > 0);
+		}
+		
+		public boolean readFully(byte[] dst, int dstOffset, int length) throws IOException {
+			while (length > 0) {
+				if (offset >= blockLength && !fill())
+					return false;
+				final int n = Math.min(length, blockLength - offset);
+				System.arraycopy(tmp, offset, dst, dstOffset, n);
+				offset += n;
+				dstOffset += n;
+				length -= n;
+			}
+			return true;
+		}
+		
+		public boolean skip(long length) throws IOException {
+			seek(position() + length);
+			return true;
+		}
+	}
+	
+	//Reads the contents of one packet at a time, hiding the page and segment boundaries
+	//http://www.xiph.org/ogg/doc/framing.html
+	private static final class OggPacketReader extends BlockReader {
+		private final byte[] header, segments;
+		private int serial, segmentCount, segmentIndex, segmentRemaining, lastSegmentLength;
+		private boolean firstPage;
+		
+		public OggPacketReader(RandomAccessFile f, byte[] tmp) {
+			super(f, tmp);
+			header = new byte[27];
+			segments = new byte[255];
+			firstPage = true;
+		}
+		
+		public int getSerial() {
+			return serial;
+		}
+		
+		private boolean nextPage() throws IOException {
+			if (!super.readFully(header, 0, 27) || readBE32(header, 0) != 0x4f676753) //OggS
+				return false;
+			final int pageSerial = readLE32(header, 14);
+			if (firstPage) {
+				firstPage = false;
+				serial = pageSerial;
+			} else if (pageSerial != serial) {
+				//multiplexed streams are not supported
+				return false;
+			}
+			segmentCount = (int)header[26] & 0xff;
+			segmentIndex = 0;
+			return super.readFully(segments, 0, segmentCount);
+		}
+		
+		//returns false when the current packet has ended
+		private boolean nextSegment() throws IOException {
+			if (lastSegmentLength < 255)
+				return false;
+			while (segmentIndex >= segmentCount) {
+				if (!nextPage())
+					return false;
+			}
+			segmentRemaining = (int)segments[segmentIndex++] & 0xff;
+			lastSegmentLength = segmentRemaining;
+			return true;
+		}
+		
+		public boolean beginPacket() throws IOException {
+			if (firstPage && !nextPage())
+				return false;
+			//skip whatever is left from the previous packet
+			while (segmentRemaining > 0 || nextSegment()) {
+				super.skip(segmentRemaining);
+				segmentRemaining = 0;
+			}
+			lastSegmentLength = 255;
+			return true;
+		}
+		
+		@Override
+		public boolean readFully(byte[] dst, int dstOffset, int length) throws IOException {
+			while (length > 0) {
+				if (segmentRemaining == 0) {
+					if (!nextSegment())
+						return false;
+					continue;
+				}
+				final int n = Math.min(length, segmentRemaining);
+				if (!super.readFully(dst, dstOffset, n))
+					return false;
+				segmentRemaining -= n;
+				dstOffset += n;
+				length -= n;
+			}
+			return true;
+		}
+		
+		@Override
+		public boolean skip(long length) throws IOException {
+			while (length > 0) {
+				if (segmentRemaining == 0) {
+					if (!nextSegment())
+						return false;
+					continue;
+				}
+				final int n = (int)Math.min(length, (long)segmentRemaining);
+				super.skip(n);
+				segmentRemaining -= n;
+				length -= n;
+			}
+			return true;
+		}
+	}
+	
+	private static int readLE32(byte[] tmp, int offset) {
+		return ((int)tmp[offset] & 0xff) | (((int)tmp[offset + 1] & 0xff) << 8) | (((int)tmp[offset + 2] & 0xff) << 16) | ((int)tmp[offset + 3] << 24);
+	}
+	
+	private static long readLE64(byte[] tmp, int offset) {
+		return ((long)readLE32(tmp, offset) & 0xffffffffL) | ((long)readLE32(tmp, offset + 4) << 32);
+	}
+	
+	private static boolean matchesKey(byte[] tmp, int length, String key) {
+		if (length != key.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			int c = (int)tmp[i];
+			if (c >= 'a' && c <= 'z')
+				c -= ('a' - 'A');
+			if (c != key.charAt(i))
+				return false;
+		}
+		return true;
+	}
+	
+	private static String trackNumber(String value) {
+		//track numbers are frequently stored as "3/12"
+		final int i = value.indexOf('/');
+		return ((i > 0) ? value.substring(0, i) : ((i == 0) ? null : value));
+	}
+	
+	//http://www.xiph.org/vorbis/doc/v-comment.html
+	private static int extractVorbisComment(BlockReader r, String[] fields, int found) throws IOException {
+		byte[] tmp = new byte[256];
+		if (!r.readFully(tmp, 0, 4))
+			return found;
+		final int vendorLength = readLE32(tmp, 0);
+		if (vendorLength < 0 || !r.skip(vendorLength) || !r.readFully(tmp, 0, 4))
+			return found;
+		int count = readLE32(tmp, 0);
+		while (count > 0 && (found & ALL_BUT_LENGTH_B) != ALL_BUT_LENGTH_B) {
+			count--;
+			if (!r.readFully(tmp, 0, 4))
+				break;
+			final int length = readLE32(tmp, 0);
+			if (length < 0)
+				break;
+			//only the beginning of each comment is read, in order to skip pictures
+			//and other large comments without reading them
+			int read = Math.min(length, MAX_VORBIS_KEY_LENGTH + 1);
+			if (!r.readFully(tmp, 0, read))
+				break;
+			int keyLength = 0;
+			while (keyLength < read && tmp[keyLength] != '=')
+				keyLength++;
+			int field = -1;
+			if (keyLength < read) {
+				if (matchesKey(tmp, keyLength, "TITLE"))
+					field = TITLE;
+				else if (matchesKey(tmp, keyLength, "ARTIST"))
+					field = ARTIST;
+				else if (matchesKey(tmp, keyLength, "ALBUM"))
+					field = ALBUM;
+				else if (matchesKey(tmp, keyLength, "TRACKNUMBER"))
+					field = TRACK;
+				else if (matchesKey(tmp, keyLength, "DATE"))
+					field = YEAR;
+			}
+			if (field < 0 || (found & (1 << field)) != 0 || length > MAX_TAG_VALUE_LENGTH) {
+				if (!r.skip(length - read))
+					break;
+				continue;
+			}
+			if (length > tmp.length)
+				tmp = Arrays.copyOf(tmp, length);
+			if (!r.readFully(tmp, read, length - read))
+				break;
+			String value = new String(tmp, keyLength + 1, length - keyLength - 1, "UTF-8").trim();
+			if (field == TRACK)
+				value = trackNumber(value);
+			else if (field == YEAR && value.length() > 4)
+				value = value.substring(0, 4);
+			if (value != null && value.length() != 0) {
+				fields[field] = value;
+				found |= (1 << field);
+			}
+		}
+		return found;
+	}
+	
+	//https://xiph.org/flac/format.html
+	private static String[] extractFLAC(RandomAccessFile f, byte[][] tmpPtr) throws IOException {
+		final BlockReader r = new BlockReader(f, tmpPtr[0]);
+		final byte[] tmp = new byte[34];
+		if (!r.readFully(tmp, 0, 4))
+			return null;
+		if ((readBE32(tmp, 0) & 0xffffff00) == 0x49443300) { //ID3
+			//a few taggers put an ID3v2 tag before the FLAC stream... just skip it
+			if (!r.readFully(tmp, 4, 6))
+				return null;
+			r.seek(((tmp[5] & 0x10) != 0 ? 20 : 10) + (
+				((int)tmp[9] & 0x7f) |
+				(((int)tmp[8] & 0x7f) << 7) |
+				(((int)tmp[7] & 0x7f) << 14) |
+				(((int)tmp[6] & 0x7f) << 21)));
+			if (!r.readFully(tmp, 0, 4))
+				return null;
+		}
+		if (readBE32(tmp, 0) != 0x664c6143) //fLaC
+			return null;
+		final String[] fields = new String[FIELD_COUNT];
+		int found = 0;
+		boolean streamInfoFound = false;
+		while (r.readFully(tmp, 0, 4)) {
+			final boolean last = ((tmp[0] & 0x80) != 0);
+			final int type = tmp[0] & 0x7f;
+			final int length = readBE32(tmp, 0) & 0xffffff;
+			final long next = r.position() + length;
+			if (type == 0) { //STREAMINFO
+				if (length < 18 || !r.readFully(tmp, 0, 18))
+					break;
+				final int sampleRate = (((int)tmp[10] & 0xff) << 12) | (((int)tmp[11] & 0xff) << 4) | (((int)tmp[12] & 0xff) >>> 4);
+				final long totalSamples = (((long)tmp[13] & 0x0f) << 32) | ((long)readBE32(tmp, 14) & 0xffffffffL);
+				if (sampleRate > 0 && totalSamples > 0) {
+					fields[LENGTH] = Long.toString((totalSamples * 1000L) / (long)sampleRate);
+					found |= LENGTH_B;
+				}
+				streamInfoFound = true;
+			} else if (type == 4) { //VORBIS_COMMENT
+				found = extractVorbisComment(r, fields, found);
+			}
+			if (last || found == ALL_B)
+				break;
+			r.seek(next);
+		}
+		return (streamInfoFound ? fields : null);
+	}
+	
+	//the length of the stream is given by the granule position of its last page
+	private static long lastOggGranulePosition(RandomAccessFile f, int serial, byte[] tmp) throws IOException {
+		final long fileLength = f.length();
+		long end = fileLength;
+		//a page cannot be larger than 65307 bytes
+		while (end > 0 && (fileLength - end) < 65307 + 27) {
+			final long start = Math.max(0, end - tmp.length);
+			final int length = readAt(f, start, tmp, (int)(end - start));
+			for (int i = length - 27; i >= 0; i--) {
+				if (tmp[i] == 'O' && tmp[i + 1] == 'g' && tmp[i + 2] == 'g' && tmp[i + 3] == 'S' && readLE32(tmp, i + 14) == serial) {
+					final long granulePosition = readLE64(tmp, i + 6);
+					if (granulePosition != -1)
+						return granulePosition;
+				}
+			}
+			if (start == 0)
+				break;
+			//make sure a header split between two blocks is not missed
+			end = start + 26;
+		}
+		return -1;
+	}
+	
+	//http://www.xiph.org/vorbis/doc/Vorbis_I_spec.html
+	//https://tools.ietf.org/html/rfc7845
+	private static String[] extractOgg(RandomAccessFile f, byte[][] tmpPtr) throws IOException {
+		final OggPacketReader r = new OggPacketReader(f, tmpPtr[0]);
+		final byte[] tmp = new byte[19];
+		if (!r.beginPacket() || !r.readFully(tmp, 0, 19))
+			return null;
+		final boolean opus;
+		final int sampleRate, preSkip;
+		if (tmp[0] == 1 && tmp[1] == 'v' && tmp[2] == 'o' && tmp[3] == 'r' && tmp[4] == 'b' && tmp[5] == 'i' && tmp[6] == 's') {
+			opus = false;
+			sampleRate = readLE32(tmp, 12);
+			preSkip = 0;
+		} else if (readBE32(tmp, 0) == 0x4f707573 && readBE32(tmp, 4) == 0x48656164) { //OpusHead
+			opus = true;
+			//the granule position of Opus streams is always given in 48 kHz units
+			sampleRate = 48000;
+			preSkip = ((int)tmp[10] & 0xff) | (((int)tmp[11] & 0xff) << 8);
+		} else {
+			return null;
+		}
+		final String[] fields = new String[FIELD_COUNT];
+		int found = 0;
+		if (r.beginPacket()) {
+			if (opus) {
+				if (r.readFully(tmp, 0, 8) && readBE32(tmp, 0) == 0x4f707573 && readBE32(tmp, 4) == 0x54616773) //OpusTags
+					found = extractVorbisComment(r, fields, found);
+			} else {
+				if (r.readFully(tmp, 0, 7) && tmp[0] == 3 && tmp[1] == 'v' && tmp[2] == 'o' && tmp[3] == 'r' && tmp[4] == 'b' && tmp[5] == 'i' && tmp[6] == 's')
+					found = extractVorbisComment(r, fields, found);
+			}
+		}
+		if (sampleRate > 0) {
+			final long granulePosition = lastOggGranulePosition(f, r.getSerial(), tmpPtr[0]) - preSkip;
+			if (granulePosition > 0) {
+				fields[LENGTH] = Long.toString((granulePosition * 1000L) / (long)sampleRate);
+				found |= LENGTH_B;
+			}
+		}
+		return ((found != 0) ? fields : null);
+	}
+	
+	//reads the header of the atom at the current position, filling atomSize with its total
+	//size (including the header), and returning its type (or 0 if there is no valid atom)
+	private static int readMP4AtomHeader(BlockReader r, byte[] tmp, long end, long[] atomSize) throws IOException {
+		final long start = r.position();
+		if ((start + 8) > end || !r.readFully(tmp, 0, 8))
+			return 0;
+		long size = (long)readBE32(tmp, 0) & 0xffffffffL;
+		final int type = readBE32(tmp, 4);
+		if (size == 1) {
+			if (!r.readFully(tmp, 0, 8))
+				return 0;
+			size = ((long)readBE32(tmp, 0) << 32) | ((long)readBE32(tmp, 4) & 0xffffffffL);
+		} else if (size == 0) {
+			//the atom extends up to the end of its parent
+			size = end - start;
+		}
+		if (size < (r.position() - start) || (start + size) > end)
+			return 0;
+		atomSize[0] = size;
+		return type;
+	}
+	
+	private static int extractMP4Item(BlockReader r, byte[] tmp, int type, long end, String[] fields, int found) throws IOException {
+		final int field;
+		switch (type) {
+		case 0xa96e616d: //©nam
+			field = TITLE;
+			break;
+		case 0xa9415254: //©ART
+			field = ARTIST;
+			break;
+		case 0xa9616c62: //©alb
+			field = ALBUM;
+			break;
+		case 0x74726b6e: //trkn
+			field = TRACK;
+			break;
+		case 0xa9646179: //©day
+			field = YEAR;
+			break;
+		default:
+			return found;
+		}
+		if ((found & (1 << field)) != 0)
+			return found;
+		final long[] atomSize = new long[1];
+		while (r.position() < end) {
+			final long start = r.position();
+			final int childType = readMP4AtomHeader(r, tmp, end, atomSize);
+			if (childType == 0)
+				break;
+			if (childType == 0x64617461) { //data
+				//data type (4 bytes) + locale (4 bytes)
+				final long length = atomSize[0] - (r.position() - start) - 8;
+				if (length <= 0 || length > MAX_TAG_VALUE_LENGTH || !r.readFully(tmp, 0, 8))
+					break;
+				final byte[] value = new byte[(int)length];
+				if (!r.readFully(value, 0, value.length))
+					break;
+				String s;
+				if (field == TRACK) {
+					//reserved (2 bytes) + track (2 bytes) + total (2 bytes)
+					s = ((length >= 4) ? Integer.toString((((int)value[2] & 0xff) << 8) | ((int)value[3] & 0xff)) : null);
+				} else {
+					s = new String(value, 0, value.length, "UTF-8").trim();
+					if (field == YEAR && s.length() > 4)
+						s = s.substring(0, 4);
+				}
+				if (s != null && s.length() != 0) {
+					fields[field] = s;
+					found |= (1 << field);
+				}
+				break;
+			}
+			r.seek(start + atomSize[0]);
+		}
+		return found;
+	}
+	
+	//walks the atoms in the given range, looking for moov/mvhd and moov/udta/meta/ilst
+	//https://developer.apple.com/library/mac/documentation/QuickTime/QTFF/
+	private static int extractMP4Atoms(BlockReader r, byte[] tmp, int parentType, long end, String[] fields, int found) throws IOException {
+		final long[] atomSize = new long[1];
+		while (r.position() < end && found != ALL_B) {
+			final long start = r.position();
+			final int type = readMP4AtomHeader(r, tmp, end, atomSize);
+			if (type == 0)
+				break;
+			final long atomEnd = start + atomSize[0];
+			if (parentType == 0x696c7374) { //ilst
+				found = extractMP4Item(r, tmp, type, atomEnd, fields, found);
+			} else {
+				switch (type) {
+				case 0x6d6f6f76: //moov
+				case 0x75647461: //udta
+				case 0x696c7374: //ilst
+					found = extractMP4Atoms(r, tmp, type, atomEnd, fields, found);
+					break;
+				case 0x6d657461: //meta
+					//in MP4 files, meta is a full atom, whose children come after version (1 byte)
+					//and flags (3 bytes), but in QuickTime files, meta is a plain atom, whose
+					//first child (hdlr) comes right after its header
+					if (r.readFully(tmp, 0, 8)) {
+						r.seek(r.position() - ((readBE32(tmp, 4) == 0x68646c72) ? 8 : 4)); //hdlr
+						found = extractMP4Atoms(r, tmp, type, atomEnd, fields, found);
+					}
+					break;
+				case 0x6d766864: //mvhd
+					if (parentType == 0x6d6f6f76 && r.readFully(tmp, 0, 4)) {
+						long timeScale = 0, duration = 0;
+						if (tmp[0] == 1) {
+							//creation time (8 bytes) + modification time (8 bytes)
+							if (r.skip(16) && r.readFully(tmp, 0, 12)) {
+								timeScale = (long)readBE32(tmp, 0) & 0xffffffffL;
+								duration = ((long)readBE32(tmp, 4) << 32) | ((long)readBE32(tmp, 8) & 0xffffffffL);
+							}
+						} else {
+							//creation time (4 bytes) + modification time (4 bytes)
+							if (r.skip(8) && r.readFully(tmp, 0, 8)) {
+								timeScale = (long)readBE32(tmp, 0) & 0xffffffffL;
+								duration = (long)readBE32(tmp, 4) & 0xffffffffL;
+							}
+						}
+						if (timeScale > 0 && duration > 0) {
+							fields[LENGTH] = Long.toString((duration * 1000L) / timeScale);
+							found |= LENGTH_B;
+						}
+					}
+					break;
+				}
+			}
+			if (parentType == 0 && type == 0x6d6f6f76) //there is nothing else to look for after moov
+				break;
+			r.seek(atomEnd);
+		}
+		return found;
+	}
+	
+	private static String[] extractMP4(RandomAccessFile f, byte[][] tmpPtr) throws IOException {
+		final BlockReader r = new BlockReader(f, tmpPtr[0]);
+		final byte[] tmp = new byte[16];
+		final long[] atomSize = new long[1];
+		final long end = f.length();
+		if (readMP4AtomHeader(r, tmp, end, atomSize) != 0x66747970) //ftyp
+			return null;
+		r.seek(atomSize[0]);
+		final String[] fields = new String[FIELD_COUNT];
+		return ((extractMP4Atoms(r, tmp, 0, end, fields, 0) != 0) ? fields : null);
+	}
+	
 	public static String[] extract(FileSt file, byte[][] tmpPtr) {
 		int i = file.path.lastIndexOf('.');
 		if (i < 0)
 			return null;
 		final String ext = file.path.substring(i + 1).toLowerCase(Locale.US);
-		//the only two formats supported for now... I hope to add ogg soon ;)
-		if (!ext.equals("mp3") && !ext.equals("aac"))
+		final int format;
+		if (ext.equals("mp3") || ext.equals("aac"))
+			format = FORMAT_ID3;
+		else if (ext.equals("flac"))
+			format = FORMAT_FLAC;
+		else if (ext.equals("ogg") || ext.equals("oga") || ext.equals("opus"))
+			format = FORMAT_OGG;
+		else if (ext.equals("m4a") || ext.equals("mp4") || ext.equals("3gp") || ext.equals("3ga"))
+			format = FORMAT_MP4;
+		else
 			return null;
 		RandomAccessFile f = null;
 		try {
 			f = ((file.file != null) ? new RandomAccessFile(file.file, "r") : new RandomAccessFile(file.path, "r"));
+			if (format != FORMAT_ID3 && tmpPtr[0].length < BLOCK_SIZE)
+				tmpPtr[0] = new byte[BLOCK_SIZE];
+			switch (format) {
+			case FORMAT_FLAC:
+				return extractFLAC(f, tmpPtr);
+			case FORMAT_OGG:
+				return extractOgg(f, tmpPtr);
+			case FORMAT_MP4:
+				return extractMP4(f, tmpPtr);
+			}
 			return extractID3v2Andv1(f, tmpPtr);
 		} catch (Throwable ex) {
 			ex.printStackTrace();
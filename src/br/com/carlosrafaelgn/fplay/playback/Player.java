@@ -73,13 +73,17 @@ import br.com.carlosrafaelgn.fplay.R;
 import br.com.carlosrafaelgn.fplay.WidgetMain;
 import br.com.carlosrafaelgn.fplay.activity.ActivityHost;
 import br.com.carlosrafaelgn.fplay.activity.MainHandler;
+import br.com.carlosrafaelgn.fplay.list.DirectoryCache;
 import br.com.carlosrafaelgn.fplay.list.FileSt;
+import br.com.carlosrafaelgn.fplay.list.MediaLibrary;
+import br.com.carlosrafaelgn.fplay.list.MetadataResolver;
 import br.com.carlosrafaelgn.fplay.list.Song;
 import br.com.carlosrafaelgn.fplay.list.SongList;
 import br.com.carlosrafaelgn.fplay.ui.BgListView;
 import br.com.carlosrafaelgn.fplay.ui.UI;
 import br.com.carlosrafaelgn.fplay.util.ArraySorter;
 import br.com.carlosrafaelgn.fplay.util.SerializableMap;
+import br.com.carlosrafaelgn.fplay.util.StorageWriter;
 import br.com.carlosrafaelgn.fplay.visualizer.BluetoothVisualizerControllerJni;
 
 //
@@ -466,6 +470,8 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			filter.addAction("android.bluetooth.a2dp.profile.action.CONNECTION_STATE_CHANGED");
 			//HEADSET_STATE_CHANGED is based on: https://groups.google.com/forum/#!topic/android-developers/pN2k5_kFo4M
 			filter.addAction("android.bluetooth.intent.action.HEADSET_STATE_CHANGED");
+			//the media library is only indexed while the device is charging
+			filter.addAction("android.intent.action.ACTION_POWER_CONNECTED");
 			externalReceiver = new ExternalReceiver();
 			thePlayer.getApplicationContext().registerReceiver(externalReceiver, filter);
 
@@ -519,6 +525,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 				Thread.yield();
 
 			songs.startDeserializing(thePlayer, null, true, false, false);
+			MediaLibrary.startIndexing();
 		}
 		//fix the initial selection when the app is started from the widget
 		alreadySelected = false;
@@ -557,6 +564,8 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			if (externalReceiver != null)
 				thePlayer.getApplicationContext().unregisterReceiver(externalReceiver);
 			saveConfig(thePlayer, true);
+			//the process may be killed as soon as the service stops
+			StorageWriter.waitForPendingJobs();
 		}
 
 		for (int i = statePlayer.length - 1; i >= 0; i--) {
@@ -595,6 +604,9 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			return;
 		localSong = songs.getSongAndSetCurrent(how);
 		final Song[] songArray = new Song[] { localSong, songs.possibleNextSong };
+		//placeholders that are about to be played must be resolved before all the others
+		MetadataResolver.prioritize(songArray[1]);
+		MetadataResolver.prioritize(localSong);
 		songs.possibleNextSong = null;
 		postPlayPending = true;
 		handler.sendMessageAtTime(Message.obtain(handler, MSG_POST_PLAY, how, 0, songArray), SystemClock.uptimeMillis());
@@ -940,7 +952,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			if (song == nextSongScheduledForPreparation && nextPlayer != null) {
 				//Even though it happens very rarely, a few devices will freeze and produce an ANR
 				//when calling setDataSource from the main thread :(
-				nextPlayer.setDataSource(nextSongScheduledForPreparation.path);
+				nextPlayer.setDataSource(nextSongScheduledForPreparation.getPath());
 				nextPlayer.prepareAsync();
 				nextPlayerState = PLAYER_STATE_PREPARING;
 			}
@@ -1063,12 +1075,13 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			if (how != SongList.HOW_CURRENT)
 				storedSongTime = -1;
 
-			if (song.path == null || song.path.length() == 0)
+			final String path = song.getPath();
+			if (path == null || path.length() == 0)
 				throw new IOException();
 			songScheduledForPreparation = song;
 			//Even though it happens very rarely, a few devices will freeze and produce an ANR
 			//when calling setDataSource from the main thread :(
-			player.setDataSource(song.path);
+			player.setDataSource(path);
 			player.prepareAsync();
 
 			nextPlayerState = PLAYER_STATE_NEW;
@@ -1668,6 +1681,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	private static final int OPTBIT_NOTFULLSCREEN = 36;
 	private static final int OPTBIT_CONTROLS_TO_THE_LEFT = 37;
 	private static final int OPTBIT_BORDERS = 38;
+	private static final int OPTBIT_INDEXMEDIALIBRARY = 39;
 
 	private static final int OPT_FAVORITEFOLDER0 = 0x10000;
 
@@ -1676,9 +1690,28 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 	private static final HashSet<String> favoriteFolders = new HashSet<>();
 	private static PendingIntent intentActivityHost, intentPrevious, intentPlayPause, intentNext, intentExit;
 	public static String path, originalPath, radioSearchTerm;
-	public static boolean lastRadioSearchWasByGenre, nextPreparationEnabled, doNotAttenuateVolume, headsetHookDoublePressPauses, clearListWhenPlayingFolders, controlMode, bassBoostMode, handleCallKey, playWhenHeadsetPlugged, goBackWhenPlayingFolders;
+	public static boolean lastRadioSearchWasByGenre, nextPreparationEnabled, doNotAttenuateVolume, headsetHookDoublePressPauses, indexMediaLibrary, clearListWhenPlayingFolders, controlMode, bassBoostMode, handleCallKey, playWhenHeadsetPlugged, goBackWhenPlayingFolders;
 	public static int radioLastGenre, fadeInIncrementOnFocus, fadeInIncrementOnPause, fadeInIncrementOnOther, turnOffTimerCustomMinutes, turnOffTimerSelectedMinutes, idleTurnOffTimerCustomMinutes, idleTurnOffTimerSelectedMinutes;
 
+	//savedOpts is the last map known to have been written to the file, and postedOpts is the
+	//last map posted to StorageWriter, while it has not been written yet (both are only
+	//accessed from the main thread)
+	private static SerializableMap savedOpts, postedOpts;
+	private static final SerializableMap.Listener optsListener = new SerializableMap.Listener() {
+		@Override
+		public void onSerialized(final SerializableMap map, final boolean success) {
+			MainHandler.postToMainThread(new Runnable() {
+				@Override
+				public void run() {
+					//when a write fails, the file is entirely rewritten the next time
+					savedOpts = (success ? map : null);
+					if (postedOpts == map)
+						postedOpts = null;
+				}
+			});
+		}
+	};
+
 	public static SerializableMap loadConfigFromFile(Context context) {
 		final SerializableMap opts = SerializableMap.deserialize(context, "_Player");
 		return ((opts == null) ? new SerializableMap() : opts);
@@ -1766,6 +1799,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 			//new settings (cannot be loaded the old way)
 			headsetHookDoublePressPauses = opts.getBit(OPTBIT_HEADSETHOOK_DOUBLE_PRESS_PAUSES);
 			doNotAttenuateVolume = opts.getBit(OPTBIT_DO_NOT_ATTENUATE_VOLUME);
+			indexMediaLibrary = opts.getBit(OPTBIT_INDEXMEDIALIBRARY);
 			UI.scrollBarToTheLeft = opts.getBit(OPTBIT_SCROLLBAR_TO_THE_LEFT);
 			UI.songListScrollBarType = (opts.getBitI(OPTBIT_SCROLLBAR_SONGLIST1, 0) << 1) | opts.getBitI(OPTBIT_SCROLLBAR_SONGLIST0, UI.isTV ? 0 : 1);
 			if (UI.songListScrollBarType == BgListView.SCROLLBAR_INDEXED)
@@ -1876,6 +1910,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 		opts.putBit(OPTBIT_EXTRASPACING, UI.extraSpacing);
 		opts.putBit(OPTBIT_HEADSETHOOK_DOUBLE_PRESS_PAUSES, headsetHookDoublePressPauses);
 		opts.putBit(OPTBIT_DO_NOT_ATTENUATE_VOLUME, doNotAttenuateVolume);
+		opts.putBit(OPTBIT_INDEXMEDIALIBRARY, indexMediaLibrary);
 		opts.putBit(OPTBIT_SCROLLBAR_TO_THE_LEFT, UI.scrollBarToTheLeft);
 		opts.putBit(OPTBIT_SCROLLBAR_SONGLIST0, (UI.songListScrollBarType & 1) != 0);
 		opts.putBit(OPTBIT_SCROLLBAR_SONGLIST1, (UI.songListScrollBarType & 2) != 0);
@@ -1900,9 +1935,27 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 		BassBoost.saveConfig(opts);
 		Virtualizer.saveConfig(opts);
 		//PresetReverb.saveConfig(opts);
-		opts.serialize(context, "_Player");
-		if (saveSongs)
+		if (saveSongs || savedOpts == null || postedOpts != null) {
+			//the entire file is rewritten when terminating, the first time it is saved by this
+			//process (in case an incomplete entry was left at its end), and while a previous
+			//write has not finished yet (savedOpts might not be what the file contains)
+			postedOpts = opts;
+			opts.serializeInBackground(context, "_Player", optsListener);
+		} else {
+			final SerializableMap changes = opts.changesSince(savedOpts);
+			if (changes != null) {
+				postedOpts = opts;
+				if (changes == opts)
+					opts.serializeInBackground(context, "_Player", optsListener);
+				else
+					opts.serializeChangesInBackground(context, "_Player", changes, optsListener);
+			}
+		}
+		if (saveSongs) {
 			songs.serialize(context, null);
+			DirectoryCache.serialize(context);
+			MediaLibrary.serialize(context);
+		}
 	}
 
 	private static void createIntents(Context context) {
@@ -1948,7 +2001,7 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 				if (localSong == null)
 					views.setTextViewText(R.id.lblArtist, "-");
 				else
-					views.setTextViewText(R.id.lblArtist, localSong.extraInfo);
+					views.setTextViewText(R.id.lblArtist, localSong.getExtraInfo());
 
 				views.setTextColor(R.id.lblTitle, UI.widgetTextColor);
 				views.setTextColor(R.id.lblArtist, UI.widgetTextColor);
@@ -2572,6 +2625,18 @@ public final class Player extends Service implements AudioManager.OnAudioFocusCh
 		handler.sendEmptyMessageAtTime(MSG_LIST_CLEARED, SystemClock.uptimeMillis());
 	}
 
+	//called when the metadata of the current song has been filled in after it started
+	//playing (see MetadataResolver)
+	public static void currentSongMetadataChanged() {
+		if (state != STATE_ALIVE || localSong == null)
+			return;
+		notificationManager.notify(1, getNotification());
+		broadcastStateChange(false, isPreparing(), true);
+		WidgetMain.updateWidgets(thePlayer);
+		if (observer != null)
+			observer.onPlayerChanged(localSong, true, false, null);
+	}
+
 	public static void nextMayHaveChanged(Song possibleNextSong) {
 		if (state != STATE_ALIVE)
 			return;
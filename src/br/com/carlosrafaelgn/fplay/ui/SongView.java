@@ -46,8 +46,9 @@ import br.com.carlosrafaelgn.fplay.ui.drawable.TextIconDrawable;
 
 public final class SongView extends View implements View.OnClickListener, View.OnLongClickListener {
 	private Song song;
-	private String ellipsizedTitle, ellipsizedExtraInfo;
-	private int state, width, lengthWidth, position;
+	private String ellipsizedTitle, ellipsizedExtraInfo, length;
+	private int state, width, lengthWidth, position, extraInfoMode;
+	private boolean unresolved;
 	
 	private static int height;
 
@@ -65,7 +66,7 @@ public final class SongView extends View implements View.OnClickListener, View.O
 	
 	private void processEllipsis() {
 		ellipsizedTitle = UI.ellipsizeText(song.title, UI._22sp, width - (UI.controlMargin << 1) - UI.controlSmallMargin - lengthWidth, false);
-		ellipsizedExtraInfo = UI.ellipsizeText(song.extraInfo, UI._14sp, width - (UI.controlMargin << 1), false);
+		ellipsizedExtraInfo = UI.ellipsizeText(song.getExtraInfo(), UI._14sp, width - (UI.controlMargin << 1), false);
 	}
 
 	@Override
@@ -79,10 +80,14 @@ public final class SongView extends View implements View.OnClickListener, View.O
 		this.state = (this.state & ~(UI.STATE_CURRENT | UI.STATE_SELECTED | UI.STATE_MULTISELECTED)) | state;
 		this.position = position;
 		//watch out, DO NOT use equals() in favor of speed!
-		if (this.song == song)
+		//(placeholders must be processed again once their metadata has been filled in)
+		if (this.song == song && this.unresolved == song.unresolved && this.extraInfoMode == Song.extraInfoMode)
 			return;
 		this.song = song;
-		lengthWidth = (song.isHttp ? UI._14spBox : UI.measureText(song.length, UI._14sp));
+		this.unresolved = song.unresolved;
+		this.extraInfoMode = Song.extraInfoMode;
+		length = song.getLength();
+		lengthWidth = (song.isHttp ? UI._14spBox : UI.measureText(length, UI._14sp));
 		processEllipsis();
 	}
 	
@@ -170,7 +175,7 @@ public final class SongView extends View implements View.OnClickListener, View.O
 		if (song.isHttp)
 			TextIconDrawable.drawIcon(canvas, UI.ICON_LINK, UI.rect.right - UI._14spBox - UI.controlMargin, UI.verticalMargin, UI._14spBox, txtColor);
 		else
-			UI.drawText(canvas, song.length, txtColor, UI._14sp, width - UI.controlMargin - lengthWidth, UI.verticalMargin + UI._14spYinBox);
+			UI.drawText(canvas, length, txtColor, UI._14sp, width - UI.controlMargin - lengthWidth, UI.verticalMargin + UI._14spYinBox);
 		UI.drawText(canvas, ellipsizedExtraInfo, txtColor, UI._14sp, UI.controlMargin, UI.verticalMargin + UI._1dp + UI._22spBox + UI._14spYinBox);
 	}
 	
@@ -183,6 +188,7 @@ public final class SongView extends View implements View.OnClickListener, View.O
 		song = null;
 		ellipsizedTitle = null;
 		ellipsizedExtraInfo = null;
+		length = null;
 		super.onDetachedFromWindow();
 	}
 	
@@ -37,37 +37,134 @@ public final class ArraySorter {
 		int compare(E a, E b);
 	}
 	
-	public static <E> void sort(E[] elements, int i, int n, Comparer<E> comparer) {
-		if (n > 1) {
-			E eA, eB;
-			final int endB = i + n;
-			if (n < 8) {
-				//use insertion sort only for small arrays
-				for (int x = i; x < endB; x++) {
-					int y = x;
-					while (y > i && comparer.compare(eA = elements[y - 1], eB = elements[y]) > 0) {
-						elements[y - 1] = eB;
-						elements[y--] = eA;
-					}
-				}
-				return;
+	//ranges at least this large are split between two threads (as long as there are idle
+	//cores), which means comparers must not rely on any state shared among calls
+	private static final int MIN_PARALLEL_LENGTH = 4096;
+	private static final int MAX_PARALLEL_DEPTH = 3;
+	
+	private static final class Worker<E> extends Thread {
+		private final E[] elements;
+		private final Object[] buffer;
+		private final int base, i, n, depth;
+		private final Comparer<E> comparer;
+		public Throwable error;
+		
+		public Worker(E[] elements, Object[] buffer, int base, int i, int n, int depth, Comparer<E> comparer) {
+			super("Array Sorter Thread");
+			this.elements = elements;
+			this.buffer = buffer;
+			this.base = base;
+			this.i = i;
+			this.n = n;
+			this.depth = depth;
+			this.comparer = comparer;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				sort(elements, buffer, base, i, n, depth, comparer);
+			} catch (Throwable ex) {
+				error = ex;
 			}
-			final int m = n >> 1;
-			sort(elements, i, m, comparer);
-			sort(elements, i + m, n - m, comparer);
-			int iB = i + m;
-			eA = elements[i];
-			eB = elements[iB];
+		}
+		
+		public void finish() {
+			boolean interrupted = false;
 			for (;;) {
-				if (comparer.compare(eA, eB) > 0) {
-					System.arraycopy(elements, i, elements, i + 1, iB - i);
-					elements[i] = eB;
-					if ((++iB) >= endB || (++i) >= iB) break; //MUST INCREMENT iB BEFORE COMPARING i AND iB
-					eB = elements[iB];
-				} else {
-					if ((++i) >= iB) break;
-					eA = elements[i];
+				try {
+					join();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (error instanceof RuntimeException)
+				throw (RuntimeException)error;
+			if (error instanceof Error)
+				throw (Error)error;
+		}
+	}
+	
+	//stable merge sort, performing O(n log n) comparisons and moves
+	public static <E> void sort(E[] elements, int i, int n, Comparer<E> comparer) {
+		int depth = 0;
+		if (n >= (MIN_PARALLEL_LENGTH << 1)) {
+			for (int c = Runtime.getRuntime().availableProcessors(); c > 1 && depth < MAX_PARALLEL_DEPTH; c >>= 1)
+				depth++;
+		}
+		sort(elements, i, n, depth, comparer);
+	}
+	
+	//depth is how many times a range can be split between two threads (the tests use it to
+	//run the threads even on a single core)
+	static <E> void sort(E[] elements, int i, int n, int depth, Comparer<E> comparer) {
+		if (n < 2)
+			return;
+		if (n < 8) {
+			insertionSort(elements, i, n, comparer);
+			return;
+		}
+		sort(elements, new Object[n], i, i, n, depth, comparer);
+	}
+	
+	private static <E> void insertionSort(E[] elements, int i, int n, Comparer<E> comparer) {
+		E eA, eB;
+		final int endB = i + n;
+		for (int x = i; x < endB; x++) {
+			int y = x;
+			while (y > i && comparer.compare(eA = elements[y - 1], eB = elements[y]) > 0) {
+				elements[y - 1] = eB;
+				elements[y--] = eA;
+			}
+		}
+	}
+	
+	//buffer[x - base] is the auxiliary slot for elements[x], so ranges being sorted at the
+	//same time by different threads never share slots
+	@SuppressWarnings("unchecked")
+	private static <E> void sort(E[] elements, Object[] buffer, int base, int i, int n, int depth, Comparer<E> comparer) {
+		if (n < 8) {
+			insertionSort(elements, i, n, comparer);
+			return;
+		}
+		final int m = n >> 1, iB = i + m, endB = i + n;
+		if (depth > 0 && m >= MIN_PARALLEL_LENGTH) {
+			final Worker<E> worker = new Worker<>(elements, buffer, base, i, m, depth - 1, comparer);
+			worker.start();
+			try {
+				sort(elements, buffer, base, iB, n - m, depth - 1, comparer);
+			} finally {
+				worker.finish();
+			}
+		} else {
+			sort(elements, buffer, base, i, m, 0, comparer);
+			sort(elements, buffer, base, iB, n - m, 0, comparer);
+		}
+		//nothing to merge if both halves are already in order
+		if (comparer.compare(elements[iB - 1], elements[iB]) <= 0)
+			return;
+		System.arraycopy(elements, i, buffer, i - base, m);
+		int a = i - base, b = iB, dst = i;
+		final int endA = a + m;
+		E eA = (E)buffer[a], eB = elements[b];
+		for (;;) {
+			//take from the first half when both are equal, to keep the sort stable
+			if (comparer.compare(eA, eB) <= 0) {
+				elements[dst++] = eA;
+				if ((++a) >= endA)
+					break;
+				eA = (E)buffer[a];
+			} else {
+				elements[dst++] = eB;
+				if ((++b) >= endB) {
+					//whatever is left in the first half goes to the end
+					System.arraycopy(buffer, a, elements, dst, endA - a);
+					break;
 				}
+				eB = elements[b];
 			}
 		}
 	}
@@ -0,0 +1,150 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import java.util.Locale;
+
+//
+//A set of file extensions that can be tested against file names without allocating
+//any memory (no substring(), no toLowerCase(), no boxing...)
+//
+//contains() can be called from any thread, even while another thread is adding a
+//new extension
+//
+public final class ExtensionSet {
+	private volatile char[][] table;
+	private int count, maxLength;
+
+	public ExtensionSet() {
+		table = new char[16][];
+	}
+
+	private static char toLower(char c) {
+		return ((c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : ((c < 128) ? c : Character.toLowerCase(c)));
+	}
+
+	private static int hash(char[] extension) {
+		int h = 0;
+		for (int i = 0; i < extension.length; i++)
+			h = (h * 31) + extension[i];
+		return h ^ (h >>> 16);
+	}
+
+	private static void insert(char[][] table, char[] extension) {
+		final int mask = table.length - 1;
+		int i = hash(extension) & mask;
+		while (table[i] != null)
+			i = (i + 1) & mask;
+		table[i] = extension;
+	}
+
+	//the extension can be informed with or without the leading dot
+	public synchronized void add(String extension) {
+		if (extension.length() > 0 && extension.charAt(0) == '.')
+			extension = extension.substring(1);
+		if (extension.length() == 0)
+			return;
+		final char[] chars = extension.toLowerCase(Locale.US).toCharArray();
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = toLower(chars[i]);
+		char[][] table = this.table;
+		if (contains(table, chars, 0, chars.length, null))
+			return;
+		//keep the table at most 50% full, so the probe sequences remain short
+		if (((count + 1) << 1) > table.length) {
+			final char[][] newTable = new char[table.length << 1][];
+			for (int i = table.length - 1; i >= 0; i--) {
+				if (table[i] != null)
+					insert(newTable, table[i]);
+			}
+			table = newTable;
+		} else {
+			table = table.clone();
+		}
+		insert(table, chars);
+		count++;
+		if (maxLength < chars.length)
+			maxLength = chars.length;
+		//publish the new table only after it is complete
+		this.table = table;
+	}
+
+	private static boolean contains(char[][] table, char[] chars, int offset, int length, String name) {
+		final int mask = table.length - 1;
+		int h = 0;
+		for (int i = 0; i < length; i++)
+			h = (h * 31) + ((name == null) ? chars[offset + i] : toLower(name.charAt(offset + i)));
+		int i = (h ^ (h >>> 16)) & mask;
+		char[] extension;
+		while ((extension = table[i]) != null) {
+			if (extension.length == length) {
+				int j = length - 1;
+				if (name == null) {
+					while (j >= 0 && extension[j] == chars[offset + j])
+						j--;
+				} else {
+					while (j >= 0 && extension[j] == toLower(name.charAt(offset + j)))
+						j--;
+				}
+				if (j < 0)
+					return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	//the same for any two sets containing the same extensions, regardless of the order
+	//they were added (used to tell whether anything filtered by this set is outdated)
+	public synchronized int getSignature() {
+		final char[][] table = this.table;
+		int signature = count;
+		for (int i = table.length - 1; i >= 0; i--) {
+			if (table[i] != null)
+				signature += hash(table[i]) * 31;
+		}
+		return signature;
+	}
+
+	//checks whether the extension of the given file name (everything after its last dot)
+	//belongs to this set
+	public boolean containsExtensionOf(String fileName) {
+		final int dot = fileName.lastIndexOf('.');
+		if (dot < 0)
+			return false;
+		//read table before maxLength (table is volatile, and is written after maxLength)
+		final char[][] table = this.table;
+		final int length = fileName.length() - dot - 1;
+		return (length > 0 && length <= maxLength && contains(table, null, dot + 1, length, fileName));
+	}
+}
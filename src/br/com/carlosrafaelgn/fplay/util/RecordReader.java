@@ -0,0 +1,138 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+//Reads the records written by RecordWriter, one at a time, through the same reusable buffer.
+//The fields of the current record are read from this stream, and whatever is left unread
+//(fields added by newer versions) is skipped by nextRecord().
+public final class RecordReader extends InputStream {
+	private final InputStream is;
+	private long available;
+	private byte[] buf;
+	private int pos, length;
+	private boolean truncated;
+
+	//available is the maximum number of bytes that can be read from is
+	public RecordReader(InputStream is, long available) {
+		this.is = is;
+		this.available = available;
+		this.buf = new byte[256];
+	}
+
+	//returns false once there are no more records, or once an incomplete record is found
+	//(see isTruncated())
+	public boolean nextRecord() throws IOException {
+		pos = 0;
+		length = 0;
+		if (available <= 0)
+			return false;
+		final int b = is.read();
+		if (b < 0)
+			return false;
+		final int recordLength = b | (is.read() << 8) | (is.read() << 16) | (is.read() << 24);
+		available -= 4;
+		if (recordLength < 0 || recordLength > available) {
+			truncated = true;
+			return false;
+		}
+		if (recordLength > buf.length)
+			buf = new byte[recordLength + 64];
+		int read = 0;
+		while (read < recordLength) {
+			final int r = is.read(buf, read, recordLength - read);
+			if (r < 0) {
+				truncated = true;
+				return false;
+			}
+			read += r;
+		}
+		available -= recordLength;
+		length = recordLength;
+		return true;
+	}
+
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	//used to check whether optional fields, added by newer versions, are present
+	public boolean hasMoreFields() {
+		return (pos < length);
+	}
+
+	public int readInt() throws IOException {
+		final int pos = this.pos;
+		if ((length - pos) < 4)
+			throw new IOException();
+		this.pos = pos + 4;
+		return Serializer.deserializeInt(buf, pos);
+	}
+
+	//the string is decoded straight from the record, without copying its bytes elsewhere
+	public String readString() throws IOException {
+		final int stringLength = readInt();
+		if (stringLength < 0)
+			return null;
+		if (stringLength == 0)
+			return "";
+		final int pos = this.pos;
+		if ((length - pos) < stringLength)
+			throw new IOException();
+		this.pos = pos + stringLength;
+		return Serializer.decodeUTF8(buf, pos, stringLength, null);
+	}
+
+	@Override
+	public int read() {
+		return ((pos < length) ? (buf[pos++] & 0xff) : -1);
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int count) {
+		if (pos >= length)
+			return -1;
+		if (count > (length - pos))
+			count = length - pos;
+		System.arraycopy(buf, pos, buffer, offset, count);
+		pos += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return length - pos;
+	}
+}
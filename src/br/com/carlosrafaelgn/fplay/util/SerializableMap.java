@@ -33,12 +33,15 @@
 package br.com.carlosrafaelgn.fplay.util;
 
 import android.content.Context;
-import android.util.SparseArray;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 public final class SerializableMap {
 	private static final int TYPE_INT = 0;
@@ -48,75 +51,267 @@ public final class SerializableMap {
 	private static final int TYPE_STRING = 4;
 	private static final int TYPE_BUFFER = 5;
 	private static final int TYPE_BITS = 6;
-	
-	private final SparseArray<Object> dict;
+	//files written before VERSION always start with the key of the bits entry (0)
+	private static final int VERSION = 0x0101;
+	
+	//the entries are kept sorted by key, in parallel arrays, so that ints, longs, floats and
+	//doubles (stored as raw bits in values) are never boxed, and only strings and buffers
+	//are stored in objects
+	private int[] keys;
+	private byte[] types;
+	private long[] values;
+	private Object[] objects;
+	private int size;
 	private byte[] bitStorage;
 	private int bitCount;
+	//set by changesSince() when the bits must be appended (even if there are none left)
+	private boolean bitsChanged;
 	
 	public SerializableMap() {
-		dict = new SparseArray<>();
+		this(16);
 	}
 	
 	public SerializableMap(int initialCapacity) {
-		dict = new SparseArray<>(initialCapacity);
+		if (initialCapacity < 4)
+			initialCapacity = 4;
+		keys = new int[initialCapacity];
+		types = new byte[initialCapacity];
+		values = new long[initialCapacity];
+		objects = new Object[initialCapacity];
+	}
+	
+	private int indexOfKey(int key) {
+		int lo = 0, hi = size - 1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			final int k = keys[mid];
+			if (k < key)
+				lo = mid + 1;
+			else if (k > key)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return ~lo;
+	}
+	
+	private void putEntry(int key, int type, long value, Object object) {
+		int i = indexOfKey(key);
+		if (i < 0) {
+			i = ~i;
+			if (size == keys.length) {
+				final int capacity = size + (size >> 1) + 4;
+				keys = Arrays.copyOf(keys, capacity);
+				types = Arrays.copyOf(types, capacity);
+				values = Arrays.copyOf(values, capacity);
+				objects = Arrays.copyOf(objects, capacity);
+			}
+			if (i < size) {
+				System.arraycopy(keys, i, keys, i + 1, size - i);
+				System.arraycopy(types, i, types, i + 1, size - i);
+				System.arraycopy(values, i, values, i + 1, size - i);
+				System.arraycopy(objects, i, objects, i + 1, size - i);
+			}
+			keys[i] = key;
+			size++;
+		}
+		types[i] = (byte)type;
+		values[i] = value;
+		objects[i] = object;
+	}
+	
+	//returns the index of the entry, or -1 if the key is not present, or if its value is
+	//not of the given type
+	private int indexOf(int key, int type) {
+		final int i = indexOfKey(key);
+		return ((i >= 0 && types[i] == type) ? i : -1);
+	}
+	
+	public interface Listener {
+		//called from the writer thread, once the map has been written to the file (or has
+		//failed to be written, in which case the file must be considered corrupted)
+		void onSerialized(SerializableMap map, boolean success);
+	}
+	
+	//the map must not be changed after being passed to this method
+	public void serializeInBackground(Context context, String fileName, Listener listener) {
+		StorageWriter.post(context, new Job(fileName, this, null, listener));
+	}
+	
+	//same as serializeInBackground(), but only the given changes (see changesSince()) are
+	//appended to the file, as the last entry read for each key is the one that counts
+	//(neither map can be changed afterwards)
+	public void serializeChangesInBackground(Context context, String fileName, SerializableMap changes, Listener listener) {
+		StorageWriter.post(context, new Job(fileName, this, changes, listener));
+	}
+	
+	private static final class Job extends StorageWriter.Job {
+		private final SerializableMap map, changes;
+		private final Listener listener;
+		
+		public Job(String fileName, SerializableMap map, SerializableMap changes, Listener listener) {
+			super(fileName);
+			this.map = map;
+			this.changes = changes;
+			this.listener = listener;
+		}
+		
+		@Override
+		protected StorageWriter.Job coalesce(StorageWriter.Job older) {
+			//the changes are only appended when nothing else is waiting to be written, so an
+			//older job can only be replaced by an entire new file
+			return ((changes == null || !(older instanceof Job)) ? this : new Job(fileName, map, null, listener));
+		}
+		
+		@Override
+		protected void write(Context context) {
+			final boolean success = ((changes == null) ? map.serialize(context, fileName) : changes.append(context, fileName));
+			if (listener != null)
+				listener.onSerialized(map, success);
+		}
+	}
+	
+	//returns null if both maps are equal, this map if an entry has been removed (which can
+	//only be saved by rewriting the entire file), or a map with all the entries that have
+	//been added or changed otherwise
+	public SerializableMap changesSince(SerializableMap saved) {
+		SerializableMap changes = null;
+		int j = 0, common = 0;
+		for (int i = 0; i < size; i++) {
+			final int key = keys[i];
+			while (j < saved.size && saved.keys[j] < key)
+				j++;
+			if (j < saved.size && saved.keys[j] == key) {
+				common++;
+				if (saved.types[j] == types[i] && saved.values[j] == values[i] &&
+					((objects[i] instanceof byte[] && saved.objects[j] instanceof byte[]) ?
+						Arrays.equals((byte[])objects[i], (byte[])saved.objects[j]) :
+						((objects[i] == null) ? (saved.objects[j] == null) : objects[i].equals(saved.objects[j]))))
+					continue;
+			}
+			if (changes == null)
+				changes = new SerializableMap(16);
+			changes.putEntry(key, types[i], values[i], objects[i]);
+		}
+		if (common < saved.size)
+			return this;
+		if (bitCount != saved.bitCount || (bitCount > 0 && !Arrays.equals(Arrays.copyOf(bitStorage, (bitCount + 7) >>> 3), Arrays.copyOf(saved.bitStorage, (bitCount + 7) >>> 3)))) {
+			if (changes == null)
+				changes = new SerializableMap(4);
+			changes.bitCount = bitCount;
+			changes.bitStorage = bitStorage;
+			changes.bitsChanged = true;
+		}
+		return changes;
+	}
+	
+	//when writer is null, the entries are written straight to os, without records, in the
+	//legacy layout (see serializeLegacy())
+	private void serializeEntries(OutputStream os, RecordWriter writer, boolean bits) throws IOException {
+		final byte[] buf = new byte[16];
+		OutputStream record;
+		
+		//first, serialize the bits
+		if (bits) {
+			record = ((writer != null) ? writer.startRecord() : os);
+			buf[4] = TYPE_BITS;
+			Serializer.serializeInt(buf, 5, bitCount);
+			record.write(buf, 0, 9);
+			if (bitCount > 0)
+				record.write(bitStorage, 0, (bitCount + 7) >>> 3);
+			if (writer != null)
+				writer.endRecord();
+		}
+		
+		//then, serialize the rest (one record per entry)
+		for (int i = 0; i < size; i++) {
+			record = ((writer != null) ? writer.startRecord() : os);
+			Serializer.serializeInt(buf, 0, keys[i]);
+			buf[4] = types[i];
+			switch (types[i]) {
+			case TYPE_INT:
+			case TYPE_FLOAT:
+				Serializer.serializeInt(buf, 5, (int)values[i]);
+				record.write(buf, 0, 9);
+				break;
+			case TYPE_LONG:
+			case TYPE_DOUBLE:
+				Serializer.serializeLong(buf, 5, values[i]);
+				record.write(buf, 0, 13);
+				break;
+			case TYPE_STRING:
+				record.write(buf, 0, 5);
+				Serializer.serializeString(record, (objects[i] == null) ? "" : (String)objects[i]);
+				break;
+			default:
+				final byte[] tmpB = (byte[])objects[i];
+				final int tmp = (tmpB != null ? tmpB.length : 0);
+				Serializer.serializeInt(buf, 5, tmp);
+				record.write(buf, 0, 9);
+				if (tmp != 0)
+					record.write(tmpB, 0, tmp);
+				break;
+			}
+			if (writer != null)
+				writer.endRecord();
+		}
 	}
 	
 	public boolean serialize(Context context, String fileName) {
+		return serialize(context, fileName, false);
+	}
+	
+	//writes the file in the layout used before VERSION, without records, for the files that
+	//may be read by older versions of the app (like the equalizer presets exported by the
+	//user), as deserialize() can read both layouts
+	public boolean serializeLegacy(Context context, String fileName) {
+		return serialize(context, fileName, true);
+	}
+	
+	private boolean serialize(Context context, String fileName, boolean legacy) {
 		FileOutputStream fs = null;
 		BufferedOutputStream bs = null;
 		try {
-			fs = context.openFileOutput(fileName, 0);
+			fs = StorageWriter.startAtomicWrite(context, fileName);
 			bs = new BufferedOutputStream(fs, 1024);
-			final byte[] buf = new byte[16];
-			
-			//first, serialize the bits
-			buf[4] = TYPE_BITS;
-			Serializer.serializeInt(buf, 5, bitCount);
-			bs.write(buf, 0, 9);
-			if (bitCount > 0) bs.write(bitStorage, 0, (bitCount + 7) >>> 3);
-			
-			//then, serialize the rest
-			for (int i = dict.size() - 1; i >= 0; i--) {
-				final int k = dict.keyAt(i);
-				final Object v = dict.get(k);
-				Serializer.serializeInt(buf, 0, k);
-				if (v instanceof Integer) {
-					buf[4] = TYPE_INT;
-					Serializer.serializeInt(buf, 5, (Integer)v);
-					bs.write(buf, 0, 9);
-				} else if (v instanceof Long) {
-					buf[4] = TYPE_LONG;
-					Serializer.serializeLong(buf, 5, (Long)v);
-					bs.write(buf, 0, 13);
-				} else if (v instanceof Float) {
-					buf[4] = TYPE_FLOAT;
-					Serializer.serializeFloat(buf, 5, (Float)v);
-					bs.write(buf, 0, 9);
-				} else if (v instanceof Double) {
-					buf[4] = TYPE_DOUBLE;
-					Serializer.serializeDouble(buf, 5, (Double)v);
-					bs.write(buf, 0, 13);
-				} else if (v instanceof String) {
-					final String tmpS = v.toString();
-					byte[] tmpB = null;
-					int tmp = 0;
-					if (tmpS != null && tmpS.length() > 0) {
-						tmpB = tmpS.getBytes();
-						tmp = tmpB.length;
-					}
-					buf[4] = TYPE_STRING;
-					Serializer.serializeInt(buf, 5, tmp);
-					bs.write(buf, 0, 9);
-					if (tmp != 0) bs.write(tmpB, 0, tmp);
-				} else {
-					final byte[] tmpB = (byte[])v;
-					final int tmp = (tmpB != null ? tmpB.length : 0);
-					buf[4] = TYPE_BUFFER;
-					Serializer.serializeInt(buf, 5, tmp);
-					bs.write(buf, 0, 9);
-					if (tmp != 0) bs.write(tmpB, 0, tmp);
-				}
+			if (legacy) {
+				serializeEntries(bs, null, true);
+			} else {
+				Serializer.serializeInt(bs, VERSION);
+				serializeEntries(bs, new RecordWriter(bs), true);
+			}
+			bs.flush();
+			StorageWriter.finishAtomicWrite(context, fileName, fs);
+			return true;
+		} catch (Throwable ex) {
+			StorageWriter.abortAtomicWrite(context, fileName);
+			ex.printStackTrace();
+		} finally {
+			try {
+				if (bs != null)
+					bs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+			try {
+				if (fs != null)
+					fs.close();
+			} catch (Throwable ex) {
+				ex.printStackTrace();
 			}
+		}
+		return false;
+	}
+	
+	//the file must have been written by serialize() (the records are appended after the
+	//existing ones, and an incomplete last record is simply ignored when reading)
+	private boolean append(Context context, String fileName) {
+		FileOutputStream fs = null;
+		BufferedOutputStream bs = null;
+		try {
+			fs = context.openFileOutput(fileName, Context.MODE_APPEND);
+			bs = new BufferedOutputStream(fs, 1024);
+			serializeEntries(bs, new RecordWriter(bs), bitsChanged);
 			bs.flush();
 			return true;
 		} catch (Throwable ex) {
@@ -143,55 +338,22 @@ public final class SerializableMap {
 		BufferedInputStream bs = null;
 		try {
 			fs = context.openFileInput(fileName);
-			bs = new BufferedInputStream(fs, 1024);
-			byte[] buf = new byte[16];
-			int tmp;
-			SerializableMap dict = new SerializableMap(96);
-			while (bs.read(buf, 0, 9) == 9) {
-				switch ((int)buf[4]) {
-				case TYPE_INT:
-					dict.put(Serializer.deserializeInt(buf, 0), Serializer.deserializeInt(buf, 5));
-					break;
-				case TYPE_LONG:
-					if (bs.read(buf, 9, 4) != 4) return dict;
-					dict.put(Serializer.deserializeInt(buf, 0), Serializer.deserializeLong(buf, 5));
-					break;
-				case TYPE_FLOAT:
-					dict.put(Serializer.deserializeInt(buf, 0), Serializer.deserializeFloat(buf, 5));
-					break;
-				case TYPE_DOUBLE:
-					if (bs.read(buf, 9, 4) != 4) return dict;
-					dict.put(Serializer.deserializeInt(buf, 0), Serializer.deserializeDouble(buf, 5));
-					break;
-				case TYPE_STRING:
-					tmp = Serializer.deserializeInt(buf, 5);
-					if (tmp <= 0) {
-						dict.put(Serializer.deserializeInt(buf, 0), "");
-					} else {
-						byte[] tmpB = new byte[tmp];
-						if (bs.read(tmpB, 0, tmp) != tmp) return dict;
-						dict.put(Serializer.deserializeInt(buf, 0), new String(tmpB, 0, tmp));
-					}
-					break;
-				case TYPE_BUFFER:
-					tmp = Serializer.deserializeInt(buf, 5);
-					if (tmp <= 0) {
-						dict.put(Serializer.deserializeInt(buf, 0), new byte[0]);
-					} else {
-						byte[] tmpB = new byte[tmp];
-						if (bs.read(tmpB, 0, tmp) != tmp) return dict;
-						dict.put(Serializer.deserializeInt(buf, 0), tmpB);
-					}
-					break;
-				case TYPE_BITS:
-					dict.bitCount = Serializer.deserializeInt(buf, 5);
-					if (dict.bitCount > 0) {
-						dict.bitStorage = new byte[(dict.bitCount + 7) >>> 3];
-						if (bs.read(dict.bitStorage, 0, dict.bitStorage.length) != dict.bitStorage.length) return dict;
-					}
-					break;
-				default:
-					return dict;
+			bs = new SerializerInputStream(fs, 1024);
+			final byte[] buf = new byte[16];
+			final SerializableMap dict = new SerializableMap(96);
+			if (bs.read(buf, 0, 4) != 4)
+				return dict;
+			if (Serializer.deserializeInt(buf, 0) != VERSION) {
+				deserializeLegacyEntries(bs, buf, dict);
+				return dict;
+			}
+			final RecordReader reader = new RecordReader(bs, context.getFileStreamPath(fileName).length() - 4);
+			while (reader.nextRecord()) {
+				try {
+					dict.deserializeEntry(reader, buf);
+				} catch (IOException ex) {
+					//the records are still in place, so only this entry is lost
+					ex.printStackTrace();
 				}
 			}
 			return dict;
@@ -214,6 +376,106 @@ public final class SerializableMap {
 		return null;
 	}
 	
+	private void deserializeEntry(RecordReader reader, byte[] buf) throws IOException {
+		final int key = Serializer.deserializeInt(reader);
+		final int type = reader.read();
+		int tmp;
+		switch (type) {
+		case TYPE_INT:
+			put(key, Serializer.deserializeInt(reader));
+			break;
+		case TYPE_LONG:
+			if (reader.read(buf, 0, 8) != 8) throw new IOException();
+			put(key, Serializer.deserializeLong(buf, 0));
+			break;
+		case TYPE_FLOAT:
+			if (reader.read(buf, 0, 4) != 4) throw new IOException();
+			put(key, Serializer.deserializeFloat(buf, 0));
+			break;
+		case TYPE_DOUBLE:
+			if (reader.read(buf, 0, 8) != 8) throw new IOException();
+			put(key, Serializer.deserializeDouble(buf, 0));
+			break;
+		case TYPE_STRING:
+			final String tmpS = Serializer.deserializeString(reader);
+			put(key, (tmpS == null) ? "" : tmpS);
+			break;
+		case TYPE_BUFFER:
+			tmp = Serializer.deserializeInt(reader);
+			final byte[] tmpB = new byte[(tmp <= 0) ? 0 : tmp];
+			if (tmp > 0 && reader.read(tmpB, 0, tmp) != tmp)
+				throw new IOException();
+			put(key, tmpB);
+			break;
+		case TYPE_BITS:
+			tmp = Serializer.deserializeInt(reader);
+			if (tmp > 0) {
+				final byte[] storage = new byte[(tmp + 7) >>> 3];
+				if (reader.read(storage, 0, storage.length) != storage.length)
+					throw new IOException();
+				bitStorage = storage;
+			}
+			bitCount = ((tmp <= 0) ? 0 : tmp);
+			break;
+		}
+		//entries of unknown types, added by newer versions, are simply skipped
+	}
+	
+	//files written before the record format was adopted (the first 4 bytes, already read
+	//into buf, are the key of the first entry)
+	private static void deserializeLegacyEntries(InputStream bs, byte[] buf, SerializableMap dict) throws IOException {
+		int tmp;
+		if (bs.read(buf, 4, 5) != 5)
+			return;
+		do {
+			switch ((int)buf[4]) {
+			case TYPE_INT:
+				dict.put(Serializer.deserializeInt(buf, 0), Serializer.deserializeInt(buf, 5));
+				break;
+			case TYPE_LONG:
+				if (bs.read(buf, 9, 4) != 4) return;
+				dict.put(Serializer.deserializeInt(buf, 0), Serializer.deserializeLong(buf, 5));
+				break;
+			case TYPE_FLOAT:
+				dict.put(Serializer.deserializeInt(buf, 0), Serializer.deserializeFloat(buf, 5));
+				break;
+			case TYPE_DOUBLE:
+				if (bs.read(buf, 9, 4) != 4) return;
+				dict.put(Serializer.deserializeInt(buf, 0), Serializer.deserializeDouble(buf, 5));
+				break;
+			case TYPE_STRING:
+				tmp = Serializer.deserializeInt(buf, 5);
+				if (tmp <= 0) {
+					dict.put(Serializer.deserializeInt(buf, 0), "");
+				} else {
+					byte[] tmpB = new byte[tmp];
+					if (bs.read(tmpB, 0, tmp) != tmp) return;
+					dict.put(Serializer.deserializeInt(buf, 0), Serializer.decodeUTF8(tmpB, 0, tmp, null));
+				}
+				break;
+			case TYPE_BUFFER:
+				tmp = Serializer.deserializeInt(buf, 5);
+				if (tmp <= 0) {
+					dict.put(Serializer.deserializeInt(buf, 0), new byte[0]);
+				} else {
+					byte[] tmpB = new byte[tmp];
+					if (bs.read(tmpB, 0, tmp) != tmp) return;
+					dict.put(Serializer.deserializeInt(buf, 0), tmpB);
+				}
+				break;
+			case TYPE_BITS:
+				dict.bitCount = Serializer.deserializeInt(buf, 5);
+				if (dict.bitCount > 0) {
+					dict.bitStorage = new byte[(dict.bitCount + 7) >>> 3];
+					if (bs.read(dict.bitStorage, 0, dict.bitStorage.length) != dict.bitStorage.length) return;
+				}
+				break;
+			default:
+				return;
+			}
+		} while (bs.read(buf, 0, 9) == 9);
+	}
+	
 	public boolean hasBits() {
 		return (bitCount > 0);
 	}
@@ -260,143 +522,140 @@ public final class SerializableMap {
 	}
 	
 	public boolean containsKey(int key) {
-		return (dict.indexOfKey(key) >= 0);
+		return (indexOfKey(key) >= 0);
 	}
 	
 	public void remove(int key) {
-		dict.remove(key);
+		final int i = indexOfKey(key);
+		if (i < 0)
+			return;
+		size--;
+		if (i < size) {
+			System.arraycopy(keys, i + 1, keys, i, size - i);
+			System.arraycopy(types, i + 1, types, i, size - i);
+			System.arraycopy(values, i + 1, values, i, size - i);
+			System.arraycopy(objects, i + 1, objects, i, size - i);
+		}
+		objects[size] = null;
 	}
 	
 	/*public void put(int key, boolean value) {
-		dict.put(key, (value ? (int)1 : (int)0));
+		put(key, (value ? (int)1 : (int)0));
 	}*/
 	
 	public void put(int key, int value) {
-		dict.put(key, value);
+		putEntry(key, TYPE_INT, value, null);
 	}
 	
 	public void put(int key, long value) {
-		dict.put(key, value);
+		putEntry(key, TYPE_LONG, value, null);
 	}
 	
 	public void put(int key, float value) {
-		dict.put(key, value);
+		putEntry(key, TYPE_FLOAT, Float.floatToRawIntBits(value), null);
 	}
 	
 	public void put(int key, double value) {
-		dict.put(key, value);
+		putEntry(key, TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
 	}
 	
 	public void put(int key, String value) {
-		dict.put(key, value);
+		putEntry(key, TYPE_STRING, 0, value);
 	}
 	
 	public void put(int key, byte[] value) {
-		dict.put(key, value);
+		putEntry(key, TYPE_BUFFER, 0, value);
 	}
 	
 	public Object get(int key) {
-		return dict.get(key);
+		final int i = indexOfKey(key);
+		if (i < 0)
+			return null;
+		switch (types[i]) {
+		case TYPE_INT:
+			return (int)values[i];
+		case TYPE_LONG:
+			return values[i];
+		case TYPE_FLOAT:
+			return Float.intBitsToFloat((int)values[i]);
+		case TYPE_DOUBLE:
+			return Double.longBitsToDouble(values[i]);
+		}
+		return objects[i];
 	}
 	
 	public Object get(int key, Object defaultValue) {
-		final Object o = dict.get(key);
+		final Object o = get(key);
 		return ((o == null) ? defaultValue : o);
 	}
 	
 	public boolean getBoolean(int key) {
-		final Object o = dict.get(key);
-		return (o != null) && (o instanceof Integer) && ((Integer)o != 0);
+		final int i = indexOf(key, TYPE_INT);
+		return (i >= 0 && values[i] != 0);
 	}
 	
 	public boolean getBoolean(int key, boolean defaultValue) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Integer))
-			return defaultValue;
-		return ((Integer)o != 0);
+		final int i = indexOf(key, TYPE_INT);
+		return ((i < 0) ? defaultValue : (values[i] != 0));
 	}
 	
 	public int getInt(int key) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Integer))
-			return 0;
-		return (Integer)o;
+		final int i = indexOf(key, TYPE_INT);
+		return ((i < 0) ? 0 : (int)values[i]);
 	}
 	
 	public int getInt(int key, int defaultValue) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Integer))
-			return defaultValue;
-		return (Integer)o;
+		final int i = indexOf(key, TYPE_INT);
+		return ((i < 0) ? defaultValue : (int)values[i]);
 	}
 	
 	public long getLong(int key) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Long))
-			return 0;
-		return (Long)o;
+		final int i = indexOf(key, TYPE_LONG);
+		return ((i < 0) ? 0 : values[i]);
 	}
 	
 	public long getLong(int key, long defaultValue) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Long))
-			return defaultValue;
-		return (Long)o;
+		final int i = indexOf(key, TYPE_LONG);
+		return ((i < 0) ? defaultValue : values[i]);
 	}
 	
 	public float getFloat(int key) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Float))
-			return 0;
-		return (Float)o;
+		final int i = indexOf(key, TYPE_FLOAT);
+		return ((i < 0) ? 0 : Float.intBitsToFloat((int)values[i]));
 	}
 	
 	public float getFloat(int key, float defaultValue) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Float))
-			return defaultValue;
-		return (Float)o;
+		final int i = indexOf(key, TYPE_FLOAT);
+		return ((i < 0) ? defaultValue : Float.intBitsToFloat((int)values[i]));
 	}
 	
 	public double getDouble(int key) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Double))
-			return 0;
-		return (Double)o;
+		final int i = indexOf(key, TYPE_DOUBLE);
+		return ((i < 0) ? 0 : Double.longBitsToDouble(values[i]));
 	}
 	
 	public double getDouble(int key, double defaultValue) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof Double))
-			return defaultValue;
-		return (Double)o;
+		final int i = indexOf(key, TYPE_DOUBLE);
+		return ((i < 0) ? defaultValue : Double.longBitsToDouble(values[i]));
 	}
 	
 	public String getString(int key) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof String))
-			return null;
-		return o.toString();
+		final int i = indexOf(key, TYPE_STRING);
+		return ((i < 0) ? null : (String)objects[i]);
 	}
 	
 	public String getString(int key, String defaultValue) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof String))
-			return defaultValue;
-		return o.toString();
+		final int i = indexOf(key, TYPE_STRING);
+		return ((i < 0 || objects[i] == null) ? defaultValue : (String)objects[i]);
 	}
 	
 	public byte[] getBuffer(int key) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof byte[]))
-			return null;
-		return (byte[])o;
+		final int i = indexOf(key, TYPE_BUFFER);
+		return ((i < 0) ? null : (byte[])objects[i]);
 	}
 	
 	public byte[] getBuffer(int key, byte[] defaultValue) {
-		final Object o = dict.get(key);
-		if (o == null || !(o instanceof byte[]))
-			return defaultValue;
-		return (byte[])o;
+		final int i = indexOf(key, TYPE_BUFFER);
+		return ((i < 0 || objects[i] == null) ? defaultValue : (byte[])objects[i]);
 	}
 }
@@ -35,9 +35,17 @@ package br.com.carlosrafaelgn.fplay.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 
 public final class Serializer {
+	//all strings are stored in UTF-8 (which is the default charset on Android)
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	
 	public static void serializeInt(OutputStream os, int value) throws IOException {
+		if (os instanceof SerializerOutputStream) {
+			((SerializerOutputStream)os).writeInt(value);
+			return;
+		}
 		os.write(value);
 		os.write(value >>> 8);
 		os.write(value >>> 16);
@@ -90,18 +98,35 @@ public final class Serializer {
 	}
 	
 	public static void serializeString(OutputStream os, String value) throws IOException {
-		if (value == null) {
+		if (os instanceof SerializerOutputStream) {
+			((SerializerOutputStream)os).writeString(value);
+		} else if (value == null) {
 			serializeInt(os, -1);
 		} else if (value.length() == 0) {
 			serializeInt(os, 0);
 		} else {
-			final byte[] tmp = value.getBytes();
+			final byte[] tmp = value.getBytes(UTF_8);
 			serializeInt(os, tmp.length);
 			os.write(tmp);
 		}
 	}
 	
+	//variable length encoding (7 bits per byte), in which small values, positive or negative,
+	//take only one byte
+	public static void serializeVarInt(OutputStream os, int value) throws IOException {
+		value = (value << 1) ^ (value >> 31);
+		while ((value & ~0x7f) != 0) {
+			os.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		os.write(value);
+	}
+	
 	public static int deserializeInt(InputStream is) throws IOException {
+		if (is instanceof SerializerInputStream)
+			return ((SerializerInputStream)is).readInt();
+		if (is instanceof RecordReader)
+			return ((RecordReader)is).readInt();
 		return ((is.read() & 0xff) | ((is.read() & 0xff) << 8) | ((is.read() & 0xff) << 16) | ((is.read() & 0xff) << 24));
 	}
 	
@@ -110,7 +135,7 @@ public final class Serializer {
 	}
 	
 	public static long deserializeLong(InputStream is) throws IOException {
-		return ((long)(is.read() & 0xff) | (long)((is.read() & 0xff) << 8) | (long)((is.read() & 0xff) << 16) | (long)((is.read() & 0xff) << 24) |
+		return ((long)(is.read() & 0xff) | ((long)(is.read() & 0xff) << 8) | ((long)(is.read() & 0xff) << 16) | ((long)(is.read() & 0xff) << 24) |
 			((long)(is.read() & 0xff) << 32) | ((long)(is.read() & 0xff) << 40) | ((long)(is.read() & 0xff) << 48) | ((long)(is.read() & 0xff) << 56));
 	}
 	
@@ -136,13 +161,81 @@ public final class Serializer {
 	}
 	
 	public static String deserializeString(InputStream is) throws IOException {
-		int len = deserializeInt(is);
+		if (is instanceof SerializerInputStream)
+			return ((SerializerInputStream)is).readString();
+		if (is instanceof RecordReader)
+			return ((RecordReader)is).readString();
+		final int len = deserializeInt(is);
 		if (len < 0)
 			return null;
 		if (len == 0)
 			return "";
 		final byte[] tmp = new byte[len];
-		len = is.read(tmp, 0, len);
-		return new String(tmp, 0, len);
+		int read = 0;
+		while (read < len) {
+			final int r = is.read(tmp, read, len - read);
+			if (r < 0)
+				throw new IOException();
+			read += r;
+		}
+		return decodeUTF8(tmp, 0, len, null);
+	}
+	
+	public static String deserializeString(byte[] input, int offset) {
+		final int len = deserializeInt(input, offset);
+		if (len < 0)
+			return null;
+		if (len == 0)
+			return "";
+		return decodeUTF8(input, offset + 4, len, null);
+	}
+	
+	public static int deserializeVarInt(InputStream is) throws IOException {
+		int value = 0, shift = 0, b;
+		do {
+			b = is.read();
+			if (b < 0)
+				throw new IOException();
+			value |= (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0 && shift < 35);
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	static int utf8Length(String value) {
+		final int length = value.length();
+		int encodedLength = length;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800) {
+				encodedLength++;
+			} else if (c < 0xd800 || c > 0xdfff) {
+				encodedLength += 2;
+			} else if (c <= 0xdbff && (i + 1) < length && value.charAt(i + 1) >= 0xdc00 && value.charAt(i + 1) <= 0xdfff) {
+				//4 bytes for 2 chars
+				encodedLength += 2;
+				i++;
+			}
+			//an unpaired surrogate is encoded as '?'
+		}
+		return encodedLength;
+	}
+	
+	//chars is a scratch buffer kept by the caller (when it is null or too small, a temporary
+	//one is created)
+	static String decodeUTF8(byte[] input, int offset, int length, char[] chars) {
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			if (input[i] < 0)
+				return new String(input, offset, length, UTF_8);
+		}
+		//ASCII only (the most common case), so each byte is already a char
+		if (chars == null || chars.length < length)
+			chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = (char)input[offset + i];
+		return new String(chars, 0, length);
 	}
 }
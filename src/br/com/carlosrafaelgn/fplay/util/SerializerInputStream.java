@@ -0,0 +1,88 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+//BufferedInputStream that lets Serializer read ints and strings straight from its buffer,
+//instead of going through read() one byte at a time (which is synchronized), and reusing the
+//same temporary byte[] for all strings that do not fit in the buffer (and the same char[] for
+//all ASCII strings)
+public final class SerializerInputStream extends BufferedInputStream {
+	private byte[] tmp;
+	private char[] chars;
+
+	public SerializerInputStream(InputStream in, int size) {
+		super(in, (size < 16) ? 16 : size);
+	}
+
+	public int readInt() throws IOException {
+		final int pos = this.pos;
+		if ((count - pos) < 4)
+			return ((read() & 0xff) | ((read() & 0xff) << 8) | ((read() & 0xff) << 16) | ((read() & 0xff) << 24));
+		final byte[] buf = this.buf;
+		this.pos = pos + 4;
+		return ((buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8) | ((buf[pos + 2] & 0xff) << 16) | ((buf[pos + 3] & 0xff) << 24));
+	}
+
+	public void readBytes(byte[] output, int offset, int length) throws IOException {
+		while (length > 0) {
+			final int r = read(output, offset, length);
+			if (r < 0)
+				throw new IOException();
+			offset += r;
+			length -= r;
+		}
+	}
+
+	public String readString() throws IOException {
+		final int length = readInt();
+		if (length < 0)
+			return null;
+		if (length == 0)
+			return "";
+		if (chars == null || chars.length < length)
+			chars = new char[length + 64];
+		final int pos = this.pos;
+		if ((count - pos) >= length) {
+			this.pos = pos + length;
+			return Serializer.decodeUTF8(buf, pos, length, chars);
+		}
+		if (tmp == null || tmp.length < length)
+			tmp = new byte[length + 64];
+		readBytes(tmp, 0, length);
+		return Serializer.decodeUTF8(tmp, 0, length, chars);
+	}
+}
@@ -0,0 +1,124 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+//BufferedOutputStream that lets Serializer write ints and strings straight into its buffer,
+//instead of going through write(int) one byte at a time (which is synchronized), and without
+//creating a temporary byte[] for every string
+public final class SerializerOutputStream extends BufferedOutputStream {
+	public SerializerOutputStream(OutputStream out, int size) {
+		super(out, (size < 16) ? 16 : size);
+	}
+
+	private void ensureSpace(int length) throws IOException {
+		if ((buf.length - count) < length) {
+			out.write(buf, 0, count);
+			count = 0;
+		}
+	}
+
+	public void writeInt(int value) throws IOException {
+		ensureSpace(4);
+		final byte[] buf = this.buf;
+		final int count = this.count;
+		buf[count] = (byte)value;
+		buf[count + 1] = (byte)(value >>> 8);
+		buf[count + 2] = (byte)(value >>> 16);
+		buf[count + 3] = (byte)(value >>> 24);
+		this.count = count + 4;
+	}
+
+	public void writeString(String value) throws IOException {
+		if (value == null) {
+			writeInt(-1);
+			return;
+		}
+		final int length = value.length();
+		int ascii = 0;
+		while (ascii < length && value.charAt(ascii) < 0x80)
+			ascii++;
+		if (ascii == length) {
+			//ASCII only (the most common case), so just copy the lower byte of each char
+			writeInt(length);
+			int i = 0;
+			while (i < length) {
+				ensureSpace(1);
+				final byte[] buf = this.buf;
+				int count = this.count;
+				int n = buf.length - count;
+				if (n > (length - i))
+					n = length - i;
+				n += i;
+				while (i < n)
+					buf[count++] = (byte)value.charAt(i++);
+				this.count = count;
+			}
+			return;
+		}
+		writeInt(Serializer.utf8Length(value));
+		byte[] buf = this.buf;
+		int count = this.count;
+		for (int i = 0; i < length; i++) {
+			if ((buf.length - count) < 4) {
+				this.count = count;
+				ensureSpace(4);
+				count = this.count;
+			}
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				buf[count++] = (byte)c;
+			} else if (c < 0x800) {
+				buf[count++] = (byte)(0xc0 | (c >> 6));
+				buf[count++] = (byte)(0x80 | (c & 0x3f));
+			} else if (c < 0xd800 || c > 0xdfff) {
+				buf[count++] = (byte)(0xe0 | (c >> 12));
+				buf[count++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+				buf[count++] = (byte)(0x80 | (c & 0x3f));
+			} else if (c <= 0xdbff && (i + 1) < length && value.charAt(i + 1) >= 0xdc00 && value.charAt(i + 1) <= 0xdfff) {
+				final int cp = 0x10000 + ((c - 0xd800) << 10) + (value.charAt(++i) - 0xdc00);
+				buf[count++] = (byte)(0xf0 | (cp >> 18));
+				buf[count++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+				buf[count++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+				buf[count++] = (byte)(0x80 | (cp & 0x3f));
+			} else {
+				//unpaired surrogate (String.getBytes() does the same)
+				buf[count++] = '?';
+			}
+		}
+		this.count = count;
+	}
+}
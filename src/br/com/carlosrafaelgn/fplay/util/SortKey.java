@@ -0,0 +1,75 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+//Case-folded copy of a string, computed only once, so that sorting does not have to fold
+//the same strings over and over again (comparing two SortKeys produces the same order as
+//String.compareToIgnoreCase)
+public final class SortKey {
+	private final char[] chars;
+	//the first four folded chars, used to tell most keys apart without touching chars
+	private final long prefix;
+
+	public SortKey(String str) {
+		final int length = str.length();
+		final char[] chars = new char[length];
+		long prefix = 0;
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			if (c < 128) {
+				if (c >= 'A' && c <= 'Z')
+					c += ('a' - 'A');
+			} else {
+				c = Character.toLowerCase(Character.toUpperCase(c));
+			}
+			chars[i] = c;
+			if (i < 4)
+				prefix |= ((long)c << ((3 - i) << 4));
+		}
+		this.chars = chars;
+		//flip the sign bit, so that the prefixes can be compared as unsigned values
+		this.prefix = prefix ^ Long.MIN_VALUE;
+	}
+
+	public int compareTo(SortKey other) {
+		if (prefix != other.prefix)
+			return ((prefix < other.prefix) ? -1 : 1);
+		final char[] a = chars, b = other.chars;
+		final int length = ((a.length < b.length) ? a.length : b.length);
+		for (int i = 4; i < length; i++) {
+			if (a[i] != b[i])
+				return a[i] - b[i];
+		}
+		return a.length - b.length;
+	}
+}
@@ -0,0 +1,149 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import android.content.Context;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+//Writes files atomically (a temporary file is written, synced and then renamed over the
+//original one, so a file is never left half-written in case the process dies), in a
+//background thread.
+//
+//Jobs for the same file that are still waiting to be written are coalesced (see Job.coalesce),
+//so saving the same file several times in a row only writes it once.
+//
+//All methods of this class can be called from any thread
+//
+public final class StorageWriter implements Runnable {
+	public static abstract class Job {
+		public final String fileName;
+
+		protected Job(String fileName) {
+			this.fileName = fileName;
+		}
+
+		//called from the writer thread
+		protected abstract void write(Context context) throws IOException;
+
+		//called when this job is posted while an older job for the same file is still waiting,
+		//and returns the job that should be written instead of both of them
+		protected Job coalesce(Job older) {
+			return this;
+		}
+	}
+
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final Object sync = new Object();
+	private static final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+	private static Context context;
+	private static Thread thread;
+
+	private StorageWriter() {
+	}
+
+	public static void post(Context context, Job job) {
+		synchronized (sync) {
+			StorageWriter.context = context.getApplicationContext();
+			final Job older = jobs.remove(job.fileName);
+			jobs.put(job.fileName, (older == null) ? job : job.coalesce(older));
+			if (thread == null) {
+				thread = new Thread(new StorageWriter(), "Storage Writer Thread");
+				thread.start();
+			}
+		}
+	}
+
+	//blocks until all the jobs posted so far have been written (used while terminating, as
+	//the process may be killed right afterwards)
+	public static void waitForPendingJobs() {
+		synchronized (sync) {
+			while (thread != null) {
+				try {
+					sync.wait();
+				} catch (InterruptedException ex) {
+					ex.printStackTrace();
+					return;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		for (;;) {
+			final Context context;
+			final Job job;
+			synchronized (sync) {
+				final Iterator<Job> iterator = jobs.values().iterator();
+				if (!iterator.hasNext()) {
+					thread = null;
+					StorageWriter.context = null;
+					sync.notifyAll();
+					return;
+				}
+				job = iterator.next();
+				iterator.remove();
+				context = StorageWriter.context;
+			}
+			try {
+				job.write(context);
+			} catch (Throwable ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	public static FileOutputStream startAtomicWrite(Context context, String fileName) throws IOException {
+		return context.openFileOutput(fileName + TEMP_SUFFIX, 0);
+	}
+
+	//fs is closed by this method
+	public static void finishAtomicWrite(Context context, String fileName, FileOutputStream fs) throws IOException {
+		try {
+			fs.flush();
+			fs.getFD().sync();
+		} finally {
+			fs.close();
+		}
+		if (!context.getFileStreamPath(fileName + TEMP_SUFFIX).renameTo(context.getFileStreamPath(fileName)))
+			throw new IOException("Error renaming " + fileName + TEMP_SUFFIX);
+	}
+
+	public static void abortAtomicWrite(Context context, String fileName) {
+		context.deleteFile(fileName + TEMP_SUFFIX);
+	}
+}
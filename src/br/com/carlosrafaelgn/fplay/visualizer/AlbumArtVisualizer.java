@@ -134,7 +134,7 @@ public final class AlbumArtVisualizer extends View implements Visualizer, MainHa
 		} else if (this.currentSong != currentSong && albumArtFetcher != null) {
 			releaseBitmapsAndSetCurrentSong(currentSong);
 			updateRects(); //force the album icon to be displayed
-			nextPath = currentSong.path;
+			nextPath = currentSong.getPath();
 			albumArtFetcher.getAlbumArtForFile(0, version, this);
 		}
 		invalidate();
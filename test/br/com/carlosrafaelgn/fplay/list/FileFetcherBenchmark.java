@@ -0,0 +1,217 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.security.Permission;
+import java.util.HashSet;
+import java.util.Locale;
+
+import br.com.carlosrafaelgn.fplay.Benchmark;
+import br.com.carlosrafaelgn.fplay.util.ArraySorter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Compares FileFetcher.listDirectory() with the way directories used to be listed, through
+//listFiles(FileFilter) + new FileSt(File), on a directory resembling a typical album folder
+//(songs, pictures, lyrics and a few subdirectories)
+public final class FileFetcherBenchmark {
+	private static final int SONGS = 300, PICTURES = 200, OTHERS = 100, DIRECTORIES = 40, ROUNDS = 20;
+	private static final HashSet<String> oldSupportedTypes = new HashSet<>();
+	private File directory;
+
+	static {
+		final String[] types = { ".3gp", ".3ga", ".mp4", ".m4a", ".aac", ".mp3", ".flac", ".mid", ".xmf", ".mxmf", ".rtttl", ".rtx", ".ogg", ".imy", ".wav", ".mkv" };
+		for (String type : types)
+			oldSupportedTypes.add(type);
+	}
+
+	//counts the queries made through java.io.File (every stat and every listing goes through
+	//checkRead()), made by the thread running the benchmark (security managers are deprecated
+	//in newer JVMs, which is why measure() does not rely on them)
+	@SuppressWarnings("removal")
+	private static final class QueryCounter extends SecurityManager {
+		private final Thread thread = Thread.currentThread();
+		public int queries;
+
+		@Override
+		public void checkRead(String file) {
+			if (Thread.currentThread() == thread)
+				queries++;
+		}
+
+		@Override
+		public void checkPermission(Permission perm) {
+		}
+
+		@Override
+		public void checkPermission(Permission perm, Object context) {
+		}
+	}
+
+	//the old filter, allocating two strings per entry, and stat'ing every single one of them
+	private static final class OldFilter implements FileFilter {
+		@Override
+		public boolean accept(File file) {
+			if (file.isDirectory()) return true;
+			final String name = file.getName();
+			final int i = name.lastIndexOf('.');
+			return ((i >= 0) && oldSupportedTypes.contains(name.substring(i).toLowerCase(Locale.US)));
+		}
+	}
+
+	private static final ArraySorter.Comparer<FileSt> comparer = new ArraySorter.Comparer<FileSt>() {
+		@Override
+		public int compare(FileSt a, FileSt b) {
+			if (a.isDirectory == b.isDirectory)
+				return a.getSortKey().compareTo(b.getSortKey());
+			return (a.isDirectory ? -1 : 1);
+		}
+	};
+
+	private static void create(File file) throws IOException {
+		if (!file.createNewFile())
+			throw new IOException("Error creating " + file);
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("dir", "");
+		if (!directory.delete() || !directory.mkdir())
+			throw new IOException("Error creating " + directory);
+		for (int i = 0; i < SONGS; i++)
+			create(new File(directory, "Song " + i + ((i & 1) == 0 ? ".mp3" : ".FLAC")));
+		for (int i = 0; i < PICTURES; i++)
+			create(new File(directory, "Picture " + i + ".jpg"));
+		for (int i = 0; i < OTHERS; i++)
+			create(new File(directory, "Other " + i + ((i & 1) == 0 ? ".txt" : ".pdf.part")));
+		for (int i = 0; i < DIRECTORIES; i++) {
+			//the names of a few directories look like file names
+			if (!(new File(directory, "Vol. " + i + ((i & 3) == 0 ? ".mp3" : ""))).mkdir())
+				throw new IOException("Error creating a directory");
+		}
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!file.delete())
+					file.deleteOnExit();
+			}
+		}
+		if (!directory.delete())
+			directory.deleteOnExit();
+	}
+
+	private FileSt[] listOld() {
+		final File[] files = directory.listFiles(new OldFilter());
+		final FileSt[] fileSts = new FileSt[files.length];
+		for (int i = 0; i < files.length; i++)
+			fileSts[i] = new FileSt(files[i]);
+		ArraySorter.sort(fileSts, 0, fileSts.length, comparer);
+		return fileSts;
+	}
+
+	private FileSt[] listNew() {
+		return FileFetcher.listDirectory(directory.getAbsolutePath(), false, null);
+	}
+
+	private static void assertSameEntries(FileSt[] expected, FileSt[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].path, actual[i].path);
+			assertEquals(expected[i].isDirectory, actual[i].isDirectory);
+		}
+	}
+
+	//returns the amount of queries made by each round, or -1 if they could not be counted
+	@SuppressWarnings("removal")
+	private int measure(String name, boolean old) {
+		QueryCounter counter = new QueryCounter();
+		try {
+			System.setSecurityManager(counter);
+		} catch (UnsupportedOperationException ex) {
+			//newer JVMs do not allow a security manager to be installed
+			counter = null;
+		}
+		final long bytes = Benchmark.allocatedBytes();
+		final long time = System.nanoTime();
+		try {
+			for (int i = 0; i < ROUNDS; i++) {
+				if (old)
+					listOld();
+				else
+					listNew();
+			}
+		} finally {
+			if (counter != null)
+				System.setSecurityManager(null);
+		}
+		final long elapsed = System.nanoTime() - time;
+		final long allocated = Benchmark.allocatedBytes() - bytes;
+		final int entries = (SONGS + PICTURES + OTHERS + DIRECTORIES) * ROUNDS;
+		final int queries = ((counter == null) ? -1 : (counter.queries / ROUNDS));
+		Benchmark.report(name, String.format(Locale.US, "%.2f queries/entry, %d bytes/entry, %d ns/entry",
+			(queries < 0) ? Float.NaN : ((float)queries / (float)(SONGS + PICTURES + OTHERS + DIRECTORIES)),
+			(bytes < 0) ? -1 : (allocated / entries),
+			elapsed / entries));
+		return queries;
+	}
+
+	@Test
+	public void listDirectory() {
+		assertSameEntries(listOld(), listNew());
+		//warm up
+		for (int i = 0; i < ROUNDS; i++) {
+			listOld();
+			listNew();
+		}
+		final int oldQueries = measure("listFiles(FileFilter) + new FileSt(File)", true);
+		final int newQueries = measure("FileFetcher.listDirectory()", false);
+		if (oldQueries >= 0 && newQueries >= 0) {
+			//only the songs, the directories and the files with unknown extensions (half of the
+			//others) are stat'ed, once each, plus the listing and lastModified of the directory
+			assertEquals(SONGS + (OTHERS / 2) + DIRECTORIES + 2, newQueries);
+			assertTrue(newQueries < oldQueries);
+		}
+	}
+}
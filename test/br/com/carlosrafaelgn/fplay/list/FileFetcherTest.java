@@ -0,0 +1,107 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public final class FileFetcherTest {
+	private File directory;
+
+	private static void create(File file) throws IOException {
+		if (!file.createNewFile())
+			throw new IOException("Error creating " + file);
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("dir", "");
+		if (!directory.delete() || !directory.mkdir())
+			throw new IOException("Error creating " + directory);
+		create(new File(directory, "b.mp3"));
+		create(new File(directory, "a.OGG"));
+		create(new File(directory, "cover.jpg"));
+		create(new File(directory, "c.fplaytest"));
+		if (!(new File(directory, "z.mp3")).mkdir() || !(new File(directory, "Vol. 1")).mkdir())
+			throw new IOException("Error creating a directory");
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!file.delete())
+					file.deleteOnExit();
+			}
+		}
+		if (!directory.delete())
+			directory.deleteOnExit();
+	}
+
+	private String[] list() {
+		final FileSt[] fileSts = FileFetcher.listDirectory(directory.getAbsolutePath(), false, null);
+		final String[] names = new String[fileSts.length];
+		for (int i = 0; i < fileSts.length; i++)
+			names[i] = (fileSts[i].isDirectory ? "/" : "") + fileSts[i].name;
+		return names;
+	}
+
+	@Test
+	public void listsDirectoriesFirstAndOnlySupportedFiles() {
+		final String[] names = list();
+		assertEquals(4, names.length);
+		assertEquals("/Vol. 1", names[0]);
+		//a directory is still a directory, even when named like a song
+		assertEquals("/z.mp3", names[1]);
+		assertEquals("a.OGG", names[2]);
+		assertEquals("b.mp3", names[3]);
+	}
+
+	@Test
+	public void listsTypesAddedAtRuntime() {
+		for (String name : list())
+			assertFalse(name.equals("c.fplaytest"));
+		FileFetcher.addSupportedType(".FPlayTest");
+		final String[] names = list();
+		assertEquals(5, names.length);
+		assertEquals("c.fplaytest", names[4]);
+	}
+}
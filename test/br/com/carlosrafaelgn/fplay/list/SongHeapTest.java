@@ -0,0 +1,182 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import br.com.carlosrafaelgn.fplay.Benchmark;
+import br.com.carlosrafaelgn.fplay.util.Serializer;
+import br.com.carlosrafaelgn.fplay.util.SerializerInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Measures how much heap a synthetic list of 50k songs retains, comparing Song with the layout
+//it used to have (full path, plus artist, album and length strings of its own for every song)
+public final class SongHeapTest {
+	private static final int SONGS = 50000, SONGS_PER_DIRECTORY = 12, ARTISTS = 400, ALBUMS_PER_ARTIST = 10;
+
+	//the fields Song used to have, filled in the same way Song.deserialize() used to fill them
+	private static final class OldSong {
+		public final String path;
+		public final boolean isHttp;
+		public String title, artist, album, extraInfo;
+		public int track, lengthMS, year;
+		public String length;
+		public boolean alreadyPlayed, selected, unresolved, resolving;
+
+		public OldSong(InputStream is) throws IOException {
+			path = Serializer.deserializeString(is);
+			title = Serializer.deserializeString(is);
+			artist = Serializer.deserializeString(is);
+			album = Serializer.deserializeString(is);
+			track = Serializer.deserializeInt(is);
+			lengthMS = Serializer.deserializeInt(is);
+			year = Serializer.deserializeInt(is);
+			unresolved = (Serializer.deserializeInt(is) != 0);
+			isHttp = false;
+			//both used to be created along with the song (EXTRA_ARTIST just pointed to artist)
+			length = Song.formatTime(lengthMS);
+			extraInfo = artist;
+		}
+	}
+
+	//the same data, in the format read by Song.deserialize()
+	private static byte[] createList() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream(SONGS * 128);
+		for (int i = 0; i < SONGS; i++) {
+			final int album = i / SONGS_PER_DIRECTORY, artist = (album / ALBUMS_PER_ARTIST) % ARTISTS;
+			final String artistName = "Artist Number " + artist;
+			final String albumName = "Album Number " + album + " (Remastered)";
+			Serializer.serializeString(os, "/storage/emulated/0/Music/" + artistName + "/" + albumName + "/" + String.format(Locale.US, "%02d", (i % SONGS_PER_DIRECTORY) + 1) + " - Song Number " + i + ".mp3");
+			Serializer.serializeString(os, "Song Number " + i);
+			Serializer.serializeString(os, artistName);
+			Serializer.serializeString(os, albumName);
+			Serializer.serializeInt(os, (i % SONGS_PER_DIRECTORY) + 1);
+			Serializer.serializeInt(os, 120000 + (i % 240) * 1000);
+			Serializer.serializeInt(os, 1970 + (i % 50));
+			Serializer.serializeInt(os, 0);
+		}
+		return os.toByteArray();
+	}
+
+	private static long usedMemory() throws InterruptedException {
+		final Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		//a few rounds, until the collector stops finding garbage
+		for (int i = 0; i < 8; i++) {
+			System.gc();
+			Thread.sleep(20);
+			final long current = runtime.totalMemory() - runtime.freeMemory();
+			if (current >= used && i >= 2)
+				return current;
+			used = current;
+		}
+		return used;
+	}
+
+	private static long measureOld(byte[] list, Object[] holder) throws IOException, InterruptedException {
+		final long before = usedMemory();
+		final InputStream is = new ByteArrayInputStream(list);
+		final OldSong[] songs = new OldSong[SONGS];
+		for (int i = 0; i < SONGS; i++)
+			songs[i] = new OldSong(is);
+		holder[0] = songs;
+		return usedMemory() - before;
+	}
+
+	private static long measureNew(byte[] list, Object[] holder) throws IOException, InterruptedException {
+		final long before = usedMemory();
+		final InputStream is = new ByteArrayInputStream(list);
+		final Song[] songs = new Song[SONGS];
+		for (int i = 0; i < SONGS; i++)
+			songs[i] = Song.deserialize(is);
+		holder[0] = songs;
+		return usedMemory() - before;
+	}
+
+	//the same songs, in the format used by the main list
+	private static byte[] createCompactList(Song[] songs) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream(SONGS * 64);
+		final Song.StringTable table = new Song.StringTable();
+		for (int i = 0; i < SONGS; i++)
+			songs[i].serializeCompact(os, table);
+		return os.toByteArray();
+	}
+
+	//names and titles are only decoded by Song.materialize()
+	private static long measureLazy(byte[] list, Object[] holder) throws IOException, InterruptedException {
+		final long before = usedMemory();
+		final SerializerInputStream is = new SerializerInputStream(new ByteArrayInputStream(list), 4096);
+		final Song.StringTable table = new Song.StringTable();
+		final Song.LazyHeap heap = new Song.LazyHeap();
+		final Song[] songs = new Song[SONGS];
+		for (int i = 0; i < SONGS; i++)
+			songs[i] = Song.deserializeCompact(is, table, heap);
+		holder[0] = songs;
+		return usedMemory() - before;
+	}
+
+	@Test
+	public void songsRetainLessHeap() throws IOException, InterruptedException {
+		final byte[] list = createList();
+		final Object[] oldHolder = new Object[1], newHolder = new Object[1], lazyHolder = new Object[1];
+		final long oldBytes = measureOld(list, oldHolder);
+		final long newBytes = measureNew(list, newHolder);
+		final long lazyBytes = measureLazy(createCompactList((Song[])newHolder[0]), lazyHolder);
+		//make sure all lists are still alive, and hold the same songs
+		final OldSong[] oldSongs = (OldSong[])oldHolder[0];
+		final Song[] newSongs = (Song[])newHolder[0];
+		final Song[] lazySongs = (Song[])lazyHolder[0];
+		for (int i = 0; i < SONGS; i += 997) {
+			assertEquals(oldSongs[i].path, newSongs[i].getPath());
+			assertEquals(oldSongs[i].album, newSongs[i].album);
+			assertEquals(oldSongs[i].path, lazySongs[i].getPath());
+			assertEquals(oldSongs[i].title, lazySongs[i].toString());
+		}
+		Benchmark.report("old Song layout", (oldBytes / SONGS) + " bytes/song");
+		Benchmark.report("Song", (newBytes / SONGS) + " bytes/song");
+		Benchmark.report("Song (lazy)", (lazyBytes / SONGS) + " bytes/song");
+		//directories, artists and albums are shared, and nothing is created for length and
+		//extraInfo before a song is displayed
+		assertTrue("old: " + oldBytes + ", new: " + newBytes, newBytes > 0 && (newBytes * 4) < (oldBytes * 3));
+		//no strings are created for names and titles before a song is materialized
+		assertTrue("new: " + newBytes + ", lazy: " + lazyBytes, lazyBytes > 0 && lazyBytes < newBytes);
+	}
+}
@@ -0,0 +1,199 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+import br.com.carlosrafaelgn.fplay.util.Serializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+//Checks the positions SongList looks up through the indices kept by each song (listIndex and
+//shuffledIndex), after every kind of edit. The list stays in random mode, so both indices are
+//used, and so nothing is handed to Player (which cannot be initialized outside a device).
+public final class SongListTest {
+	private final SongList list = SongList.getInstance();
+	private final ArrayList<Song> expected = new ArrayList<>();
+	private final Random random = new Random(42);
+	private int nextSong;
+
+	private Song createSong() throws IOException {
+		final int i = nextSong++;
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Serializer.serializeString(os, "/music/Artist " + random.nextInt(10) + "/Song " + i + ".mp3");
+		Serializer.serializeString(os, "Title " + random.nextInt(1000));
+		Serializer.serializeString(os, "Artist " + random.nextInt(10));
+		Serializer.serializeString(os, "Album " + random.nextInt(20));
+		Serializer.serializeInt(os, random.nextInt(12) + 1);
+		Serializer.serializeInt(os, 180000);
+		Serializer.serializeInt(os, 2015);
+		Serializer.serializeInt(os, 0);
+		return Song.deserialize(new ByteArrayInputStream(os.toByteArray()));
+	}
+
+	private Song[] createSongs(int count) throws IOException {
+		final Song[] songs = new Song[count];
+		for (int i = 0; i < count; i++)
+			songs[i] = createSong();
+		return songs;
+	}
+
+	private void select(int from, int to) {
+		list.setSelection(from, to, from, false, false);
+	}
+
+	private void checkPositions() {
+		assertEquals(expected.size(), list.getCount());
+		for (int i = 0; i < expected.size(); i++)
+			assertSame(expected.get(i), list.getItemT(i));
+		//playing a given position looks the song up in the shuffled list
+		for (int i = expected.size() - 1; i >= 0; i--) {
+			assertSame(expected.get(i), list.getSongAndSetCurrent(i));
+			assertEquals(i, list.getCurrentPosition());
+		}
+		//going through the shuffled list looks each song up in the list (the list is shuffled
+		//again first, otherwise it would be shuffled as soon as all songs had been played,
+		//wherever that happened, and each song must come up only once)
+		list.setRandomMode(true);
+		final IdentityHashMap<Song, Song> played = new IdentityHashMap<>();
+		for (int i = expected.size() - 1; i >= 0; i--) {
+			final Song song = list.getSongAndSetCurrent(SongList.HOW_NEXT_MANUAL);
+			assertSame(song, list.getItemT(list.getCurrentPosition()));
+			assertNull(played.put(song, song));
+		}
+	}
+
+	@Before
+	public void setUp() {
+		//the list is shared by all tests (clear() would notify Player)
+		list.setRandomMode(true);
+		if (list.getCount() > 0) {
+			select(0, list.getCount() - 1);
+			list.removeSelection();
+		}
+		assertEquals(0, list.getCount());
+	}
+
+	@Test
+	public void positionsAfterAdding() throws IOException {
+		final Song[] songs = createSongs(200);
+		list.add(-1, songs, 0, songs.length);
+		for (Song song : songs)
+			expected.add(song);
+		checkPositions();
+		final Song[] more = createSongs(50);
+		list.add(10, more, 0, more.length);
+		for (int i = 0; i < more.length; i++)
+			expected.add(10 + i, more[i]);
+		checkPositions();
+		final Song song = createSong();
+		list.add(song, 0);
+		expected.add(0, song);
+		checkPositions();
+		final Song last = createSong();
+		list.add(last, -1);
+		expected.add(last);
+		checkPositions();
+	}
+
+	@Test
+	public void positionsAfterRemoving() throws IOException {
+		final Song[] songs = createSongs(200);
+		list.add(-1, songs, 0, songs.length);
+		for (Song song : songs)
+			expected.add(song);
+		final int[][] ranges = { { 0, 0 }, { 50, 79 }, { 150, 168 }, { 5, 5 } };
+		for (int[] range : ranges) {
+			select(range[0], range[1]);
+			list.removeSelection();
+			for (int i = range[1]; i >= range[0]; i--)
+				expected.remove(i);
+			checkPositions();
+		}
+		//the last song
+		select(expected.size() - 1, expected.size() - 1);
+		list.removeSelection();
+		expected.remove(expected.size() - 1);
+		checkPositions();
+	}
+
+	@Test
+	public void positionsAfterMoving() throws IOException {
+		final Song[] songs = createSongs(200);
+		list.add(-1, songs, 0, songs.length);
+		for (Song song : songs)
+			expected.add(song);
+		//{ first, last, to }
+		final int[][] moves = { { 10, 19, 0 }, { 0, 4, 199 }, { 100, 100, 50 }, { 50, 59, 120 }, { 180, 199, 3 } };
+		for (int[] move : moves) {
+			select(move[0], move[1]);
+			list.moveSelection(move[2]);
+			final int count = move[1] - move[0] + 1;
+			final ArrayList<Song> block = new ArrayList<>(expected.subList(move[0], move[1] + 1));
+			expected.subList(move[0], move[1] + 1).clear();
+			//when moving down, the block ends at the destination
+			expected.addAll((move[2] < move[0]) ? move[2] : (move[2] - count + 1), block);
+			checkPositions();
+		}
+	}
+
+	@Test
+	public void positionsAfterSorting() throws IOException {
+		final Song[] songs = createSongs(300);
+		list.add(-1, songs, 0, songs.length);
+		final int[] modes = { SongList.SORT_BY_TITLE, SongList.SORT_BY_ARTIST, SongList.SORT_BY_ALBUM };
+		for (int mode : modes) {
+			list.sort(mode);
+			expected.clear();
+			for (int i = 0; i < list.getCount(); i++)
+				expected.add(list.getItemT(i));
+			for (int i = 1; i < expected.size(); i++) {
+				final Song a = expected.get(i - 1), b = expected.get(i);
+				final int r = ((mode == SongList.SORT_BY_TITLE) ? a.getTitleKey().compareTo(b.getTitleKey()) :
+					((mode == SongList.SORT_BY_ARTIST) ? a.getArtistKey().compareTo(b.getArtistKey()) : a.getAlbumKey().compareTo(b.getAlbumKey())));
+				assertEquals(true, r <= 0);
+			}
+			checkPositions();
+		}
+	}
+}
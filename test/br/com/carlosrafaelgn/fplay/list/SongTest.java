@@ -0,0 +1,136 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.list;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import br.com.carlosrafaelgn.fplay.util.Serializer;
+import br.com.carlosrafaelgn.fplay.util.SerializerInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public final class SongTest {
+	private static Song createSong(String path, String title, int flags) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Serializer.serializeString(os, path);
+		Serializer.serializeString(os, title);
+		Serializer.serializeString(os, "Artist");
+		Serializer.serializeString(os, "Album");
+		Serializer.serializeInt(os, 1);
+		Serializer.serializeInt(os, 180000);
+		Serializer.serializeInt(os, 2015);
+		Serializer.serializeInt(os, flags);
+		return Song.deserialize(new ByteArrayInputStream(os.toByteArray()));
+	}
+
+	private static byte[] serializeCompact(Song[] songs) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final Song.StringTable table = new Song.StringTable();
+		for (Song song : songs)
+			song.serializeCompact(os, table);
+		return os.toByteArray();
+	}
+
+	private static Song[] deserializeCompact(byte[] data, int count) throws IOException {
+		//a tiny buffer, so most strings cross its boundaries
+		final SerializerInputStream is = new SerializerInputStream(new ByteArrayInputStream(data), 16);
+		final Song.StringTable table = new Song.StringTable();
+		final Song.LazyHeap heap = new Song.LazyHeap();
+		final Song[] songs = new Song[count];
+		for (int i = 0; i < count; i++)
+			songs[i] = Song.deserializeCompact(is, table, heap);
+		return songs;
+	}
+
+	private static String longName() {
+		//larger than a single chunk of LazyHeap
+		final char[] name = new char[40000];
+		Arrays.fill(name, '\u00e9');
+		return new String(name) + ".mp3";
+	}
+
+	@Test
+	public void compactSongsAreMaterializedLazily() throws IOException {
+		final Song[] original = new Song[] {
+			createSong("/music/a/01 - One.mp3", "One", 0),
+			createSong("/music/a/02 - \u00c7a Va.mp3", "\u00c7a Va \ud83c\udfb5", 0),
+			createSong("/music/b/" + longName(), "Long", 0),
+			createSong("/music/b/Untitled.mp3", "", 0),
+			createSong("/music/b/Placeholder.mp3", "Placeholder", 1),
+			createSong("http://example.com/stream", "Radio", 0)
+		};
+		final byte[] data = serializeCompact(original);
+		final Song[] songs = deserializeCompact(data, original.length);
+		for (int i = 0; i < 4; i++) {
+			//the path and the title can be read without materializing the song
+			assertNull(songs[i].title);
+			assertEquals(original[i].getPath(), songs[i].getPath());
+			assertEquals(original[i].title, songs[i].toString());
+		}
+		//placeholders and URLs are never lazy
+		assertEquals("Placeholder", songs[4].title);
+		assertEquals(original[4].getPath(), songs[4].getPath());
+		assertEquals("Radio", songs[5].title);
+		assertEquals("http://example.com/stream", songs[5].getPath());
+		//lazy songs are written back exactly as they were read
+		assertArrayEquals(data, serializeCompact(songs));
+		for (int i = 0; i < songs.length; i++) {
+			songs[i].materialize();
+			assertNotNull(songs[i].title);
+			assertEquals(original[i].title, songs[i].title);
+			assertEquals(original[i].getPath(), songs[i].getPath());
+			assertEquals(original[i].isHttp, songs[i].isHttp);
+		}
+		assertEquals("-", songs[3].title);
+		assertArrayEquals(data, serializeCompact(songs));
+	}
+
+	@Test
+	public void legacySerializationDecodesLazySongs() throws IOException {
+		final Song original = createSong("/music/c/Song.mp3", "Song", 0);
+		final Song song = deserializeCompact(serializeCompact(new Song[] { original }), 1)[0];
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream(), actual = new ByteArrayOutputStream();
+		original.serialize(expected);
+		song.serialize(actual);
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+		assertNull(song.title);
+	}
+}
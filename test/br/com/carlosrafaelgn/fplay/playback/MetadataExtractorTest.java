@@ -0,0 +1,439 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.playback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import br.com.carlosrafaelgn.fplay.list.FileSt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+//The ID3v2 tag is read in blocks of 8 KiB (see MetadataExtractor.BLOCK_SIZE), so these tests
+//place the frames around the boundaries of those blocks (the other formats are built byte by
+//byte, with only the parts the extractor needs)
+public final class MetadataExtractorTest {
+	private static final int BLOCK_SIZE = 8192;
+	private File file, otherFile;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("id3", ".mp3");
+	}
+
+	@After
+	public void tearDown() {
+		if (file != null && !file.delete())
+			file.deleteOnExit();
+		if (otherFile != null && !otherFile.delete())
+			otherFile.deleteOnExit();
+	}
+
+	private static void writeFrame(ByteArrayOutputStream os, String id, byte[] data) {
+		os.write(id.charAt(0));
+		os.write(id.charAt(1));
+		os.write(id.charAt(2));
+		os.write(id.charAt(3));
+		os.write(data.length >>> 24);
+		os.write(data.length >>> 16);
+		os.write(data.length >>> 8);
+		os.write(data.length);
+		//flags
+		os.write(0);
+		os.write(0);
+		os.write(data, 0, data.length);
+	}
+
+	private static void writeTextFrame(ByteArrayOutputStream os, String id, String value) throws IOException {
+		final byte[] text = value.getBytes("ISO-8859-1");
+		final byte[] data = new byte[text.length + 1];
+		//encoding = ISO-8859-1
+		data[0] = 0;
+		System.arraycopy(text, 0, data, 1, text.length);
+		writeFrame(os, id, data);
+	}
+
+	//a frame that is not needed, whose data takes exactly length bytes, header included
+	private static void writePadding(ByteArrayOutputStream os, int length) {
+		writeFrame(os, "PRIV", new byte[length - 10]);
+	}
+
+	//tagSize is the size informed in the header, which may be larger than the frames written
+	//(in order to simulate a truncated file)
+	private void writeTag(ByteArrayOutputStream frames, int tagSize) throws IOException {
+		final FileOutputStream fs = new FileOutputStream(file);
+		try {
+			fs.write(new byte[] { 'I', 'D', '3', 3, 0, 0,
+				(byte)((tagSize >>> 21) & 0x7f),
+				(byte)((tagSize >>> 14) & 0x7f),
+				(byte)((tagSize >>> 7) & 0x7f),
+				(byte)(tagSize & 0x7f) });
+			frames.writeTo(fs);
+		} finally {
+			fs.close();
+		}
+	}
+
+	private void writeTag(ByteArrayOutputStream frames) throws IOException {
+		writeTag(frames, frames.size());
+	}
+
+	private static String repeat(char c, int count) {
+		final StringBuilder sb = new StringBuilder(count);
+		for (int i = 0; i < count; i++)
+			sb.append(c);
+		return sb.toString();
+	}
+
+	private String[] extract() {
+		//the same initial buffer used by the callers, which is enlarged by the extractor
+		return MetadataExtractor.extract(new FileSt(file.getAbsolutePath(), file.getName(), false), new byte[][] { new byte[256] });
+	}
+
+	@Test
+	public void frameHeaderSplitAcrossBlocks() throws IOException {
+		final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		writeTextFrame(frames, "TPE1", "Artist");
+		//the header of the next frame starts 4 bytes before the end of the first block (the
+		//tag header takes the first 10 bytes of the file)
+		writePadding(frames, (BLOCK_SIZE - 4) - 10 - frames.size());
+		writeTextFrame(frames, "TIT2", "Title");
+		writeTag(frames);
+		final String[] fields = extract();
+		assertNotNull(fields);
+		assertEquals("Artist", fields[MetadataExtractor.ARTIST]);
+		assertEquals("Title", fields[MetadataExtractor.TITLE]);
+	}
+
+	@Test
+	public void frameDataSplitAcrossBlocks() throws IOException {
+		final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		final String album = repeat('a', 500);
+		//the data of the album starts 100 bytes before the end of the first block
+		writePadding(frames, (BLOCK_SIZE - 100) - 10 - 10);
+		writeTextFrame(frames, "TALB", album);
+		writeTextFrame(frames, "TRCK", "7");
+		writeTag(frames);
+		final String[] fields = extract();
+		assertNotNull(fields);
+		assertEquals(album, fields[MetadataExtractor.ALBUM]);
+		assertEquals("7", fields[MetadataExtractor.TRACK]);
+	}
+
+	@Test
+	public void neededFrameLargerThanBlock() throws IOException {
+		final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		final String title = repeat('t', BLOCK_SIZE + 1808);
+		writeTextFrame(frames, "TPE1", "Artist");
+		writeTextFrame(frames, "TIT2", title);
+		writeTextFrame(frames, "TYER", "1999");
+		writeTag(frames);
+		final String[] fields = extract();
+		assertNotNull(fields);
+		assertEquals("Artist", fields[MetadataExtractor.ARTIST]);
+		assertEquals(title, fields[MetadataExtractor.TITLE]);
+		assertEquals("1999", fields[MetadataExtractor.YEAR]);
+	}
+
+	@Test
+	public void truncatedTag() throws IOException {
+		final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		writeTextFrame(frames, "TIT2", "Title");
+		writePadding(frames, BLOCK_SIZE);
+		//the file ends in the middle of the artist
+		final ByteArrayOutputStream artist = new ByteArrayOutputStream();
+		writeTextFrame(artist, "TPE1", repeat('r', 1000));
+		frames.write(artist.toByteArray(), 0, 500);
+		writeTag(frames, frames.size() + 4096);
+		final String[] fields = extract();
+		assertNotNull(fields);
+		assertEquals("Title", fields[MetadataExtractor.TITLE]);
+		assertNull(fields[MetadataExtractor.ARTIST]);
+	}
+
+	@Test
+	public void truncatedFrameHeader() throws IOException {
+		final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		writeTextFrame(frames, "TIT2", "Title");
+		//the file ends in the middle of the header of the next frame
+		frames.write('T');
+		frames.write('P');
+		frames.write('E');
+		writeTag(frames, frames.size() + 100);
+		final String[] fields = extract();
+		assertNotNull(fields);
+		assertEquals("Title", fields[MetadataExtractor.TITLE]);
+		assertNull(fields[MetadataExtractor.ARTIST]);
+	}
+
+	private String[] extract(String suffix, ByteArrayOutputStream contents) throws IOException {
+		otherFile = File.createTempFile("tag", suffix);
+		final FileOutputStream fs = new FileOutputStream(otherFile);
+		try {
+			contents.writeTo(fs);
+		} finally {
+			fs.close();
+		}
+		return MetadataExtractor.extract(new FileSt(otherFile.getAbsolutePath(), otherFile.getName(), false), new byte[][] { new byte[256] });
+	}
+
+	private static void writeBE32(ByteArrayOutputStream os, int value) {
+		os.write(value >>> 24);
+		os.write(value >>> 16);
+		os.write(value >>> 8);
+		os.write(value);
+	}
+
+	private static void writeLE32(ByteArrayOutputStream os, int value) {
+		os.write(value);
+		os.write(value >>> 8);
+		os.write(value >>> 16);
+		os.write(value >>> 24);
+	}
+
+	private static void writeASCII(ByteArrayOutputStream os, String value) {
+		for (int i = 0; i < value.length(); i++)
+			os.write(value.charAt(i));
+	}
+
+	private static void writeVorbisComments(ByteArrayOutputStream os, String... comments) throws IOException {
+		writeLE32(os, 10);
+		writeASCII(os, "FPlay test");
+		writeLE32(os, comments.length);
+		for (String comment : comments) {
+			final byte[] bytes = comment.getBytes("UTF-8");
+			writeLE32(os, bytes.length);
+			os.write(bytes, 0, bytes.length);
+		}
+	}
+
+	private static void writeFLACStreamInfo(ByteArrayOutputStream os, int sampleRate, long totalSamples) {
+		//last = 0, type = STREAMINFO (0), length = 34
+		writeBE32(os, 34);
+		//minimum/maximum block size (2 + 2 bytes) + minimum/maximum frame size (3 + 3 bytes)
+		os.write(new byte[10], 0, 10);
+		//sample rate (20 bits) + channels - 1 (3 bits) + bits per sample - 1 (5 bits) + total samples (36 bits)
+		os.write(sampleRate >>> 12);
+		os.write(sampleRate >>> 4);
+		os.write(((sampleRate & 0x0f) << 4) | (1 << 1) | (15 >>> 4));
+		os.write(((15 & 0x0f) << 4) | (int)((totalSamples >>> 32) & 0x0f));
+		writeBE32(os, (int)totalSamples);
+		//MD5
+		os.write(new byte[16], 0, 16);
+	}
+
+	@Test
+	public void flacStreamInfoLength() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writeASCII(os, "fLaC");
+		//more than 32 bits worth of samples (8.5 hours at 192 kHz)
+		writeFLACStreamInfo(os, 192000, 192000L * 30600L);
+		final ByteArrayOutputStream comments = new ByteArrayOutputStream();
+		writeVorbisComments(comments, "title=Title", "ARTIST=Artist", "TRACKNUMBER=3/12");
+		//last = 1, type = VORBIS_COMMENT (4)
+		writeBE32(os, 0x84000000 | comments.size());
+		comments.writeTo(os);
+		final String[] fields = extract(".flac", os);
+		assertNotNull(fields);
+		assertEquals("30600000", fields[MetadataExtractor.LENGTH]);
+		assertEquals("Title", fields[MetadataExtractor.TITLE]);
+		assertEquals("Artist", fields[MetadataExtractor.ARTIST]);
+		assertEquals("3", fields[MetadataExtractor.TRACK]);
+	}
+
+	@Test
+	public void flacStreamInfoOnly() throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writeASCII(os, "fLaC");
+		writeFLACStreamInfo(os, 44100, 44100L * 180L + 22050L);
+		final String[] fields = extract(".flac", os);
+		assertNotNull(fields);
+		assertEquals("180500", fields[MetadataExtractor.LENGTH]);
+		assertNull(fields[MetadataExtractor.TITLE]);
+	}
+
+	private static void writeOggPage(ByteArrayOutputStream os, int headerType, long granulePosition, int sequence, int[] segments, byte[] data, int offset) {
+		writeASCII(os, "OggS");
+		//version
+		os.write(0);
+		os.write(headerType);
+		writeLE32(os, (int)granulePosition);
+		writeLE32(os, (int)(granulePosition >>> 32));
+		//serial
+		writeLE32(os, 0x12345678);
+		writeLE32(os, sequence);
+		//CRC (not checked by the extractor)
+		writeLE32(os, 0);
+		os.write(segments.length);
+		int length = 0;
+		for (int segment : segments) {
+			os.write(segment);
+			length += segment;
+		}
+		os.write(data, offset, length);
+	}
+
+	@Test
+	public void vorbisCommentsSpanningOggPages() throws IOException {
+		final String title = repeat('t', 600);
+		final ByteArrayOutputStream identification = new ByteArrayOutputStream();
+		identification.write(1);
+		writeASCII(identification, "vorbis");
+		//version
+		writeLE32(identification, 0);
+		//channels
+		identification.write(2);
+		writeLE32(identification, 44100);
+		//maximum, nominal and minimum bit rates, block sizes and framing
+		identification.write(new byte[14], 0, 14);
+		final ByteArrayOutputStream comment = new ByteArrayOutputStream();
+		comment.write(3);
+		writeASCII(comment, "vorbis");
+		writeVorbisComments(comment, "ARTIST=Artist", "TITLE=" + title, "Album=Album", "DATE=2001-02-03");
+		//framing
+		comment.write(1);
+		final byte[] commentBytes = comment.toByteArray();
+		//the title begins in the second page and ends in the third one
+		assertTrue(commentBytes.length > 510 && commentBytes.length < (510 + 255));
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writeOggPage(os, 0x02, 0, 0, new int[] { identification.size() }, identification.toByteArray(), 0);
+		writeOggPage(os, 0x00, -1, 1, new int[] { 255, 255 }, commentBytes, 0);
+		writeOggPage(os, 0x01, 0, 2, new int[] { commentBytes.length - 510 }, commentBytes, 510);
+		//65 seconds worth of samples
+		writeOggPage(os, 0x04, 44100L * 65L, 3, new int[] { 1 }, new byte[1], 0);
+		final String[] fields = extract(".ogg", os);
+		assertNotNull(fields);
+		assertEquals("Artist", fields[MetadataExtractor.ARTIST]);
+		assertEquals(title, fields[MetadataExtractor.TITLE]);
+		assertEquals("Album", fields[MetadataExtractor.ALBUM]);
+		assertEquals("2001", fields[MetadataExtractor.YEAR]);
+		assertEquals("65000", fields[MetadataExtractor.LENGTH]);
+	}
+
+	private static byte[] atom(String type, byte[]... children) {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		int size = 8;
+		for (byte[] child : children)
+			size += child.length;
+		writeBE32(os, size);
+		writeASCII(os, type);
+		for (byte[] child : children)
+			os.write(child, 0, child.length);
+		return os.toByteArray();
+	}
+
+	//version (1 byte) + flags (3 bytes)
+	private static byte[] fullAtom(String type, int version, byte[]... children) {
+		final byte[][] all = new byte[children.length + 1][];
+		all[0] = new byte[] { (byte)version, 0, 0, 0 };
+		System.arraycopy(children, 0, all, 1, children.length);
+		return atom(type, all);
+	}
+
+	private static byte[] bytes(int... values) {
+		final byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			bytes[i] = (byte)values[i];
+		return bytes;
+	}
+
+	private static byte[] be32(long value) {
+		return bytes((int)(value >>> 24), (int)(value >>> 16), (int)(value >>> 8), (int)value);
+	}
+
+	private static byte[] data(int type, byte[] value) {
+		//type (4 bytes) + locale (4 bytes)
+		return atom("data", be32(type), be32(0), value);
+	}
+
+	private byte[] ilst() throws IOException {
+		return atom("ilst",
+			atom("\u00a9nam", data(1, "Title".getBytes("UTF-8"))),
+			//reserved (2 bytes) + track (2 bytes) + total (2 bytes) + reserved (2 bytes)
+			atom("trkn", data(0, bytes(0, 0, 1, 2, 0, 12, 0, 0))),
+			atom("\u00a9day", data(1, "1999-12-31".getBytes("UTF-8"))));
+	}
+
+	private String[] extractMP4(byte[] mvhd, boolean quickTimeMeta) throws IOException {
+		//pre-defined (4 bytes) + handler type (4 bytes) + reserved (12 bytes) + name
+		final byte[] hdlr = fullAtom("hdlr", 0, be32(0), "mdir".getBytes("US-ASCII"), new byte[12], new byte[1]);
+		final byte[] meta = (quickTimeMeta ? atom("meta", hdlr, ilst()) : fullAtom("meta", 0, hdlr, ilst()));
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final byte[] ftyp = atom("ftyp", "M4A ".getBytes("US-ASCII"), be32(0), "M4A ".getBytes("US-ASCII"));
+		os.write(ftyp, 0, ftyp.length);
+		final byte[] moov = atom("moov", mvhd, atom("udta", meta));
+		os.write(moov, 0, moov.length);
+		return extract(".m4a", os);
+	}
+
+	private static void assertMP4Items(String[] fields) {
+		assertNotNull(fields);
+		assertEquals("Title", fields[MetadataExtractor.TITLE]);
+		assertEquals("258", fields[MetadataExtractor.TRACK]);
+		assertEquals("1999", fields[MetadataExtractor.YEAR]);
+	}
+
+	@Test
+	public void mp4Version0MovieHeader() throws IOException {
+		//creation time + modification time + time scale + duration (4 bytes each) + the rest
+		final String[] fields = extractMP4(fullAtom("mvhd", 0, be32(0), be32(0), be32(1000), be32(123456), new byte[80]), false);
+		assertMP4Items(fields);
+		assertEquals("123456", fields[MetadataExtractor.LENGTH]);
+	}
+
+	@Test
+	public void mp4Version1MovieHeader() throws IOException {
+		//creation time + modification time (8 bytes each) + time scale (4 bytes) + duration
+		//(8 bytes, more than 32 bits worth of 48 kHz samples) + the rest
+		final long duration = 48000L * 100000L;
+		final String[] fields = extractMP4(fullAtom("mvhd", 1, new byte[16], be32(48000), be32(duration >>> 32), be32(duration), new byte[80]), false);
+		assertMP4Items(fields);
+		assertEquals("100000000", fields[MetadataExtractor.LENGTH]);
+	}
+
+	@Test
+	public void quickTimeMetaWithoutVersionAndFlags() throws IOException {
+		final String[] fields = extractMP4(fullAtom("mvhd", 0, be32(0), be32(0), be32(600), be32(600 * 42), new byte[80]), true);
+		assertMP4Items(fields);
+		assertEquals("42000", fields[MetadataExtractor.LENGTH]);
+	}
+}
@@ -0,0 +1,161 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+
+import br.com.carlosrafaelgn.fplay.Benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+
+//Compares ArraySorter with the in-place merge sort it used to be (which shifted the first
+//half with System.arraycopy for every element taken from the second half) and with
+//Arrays.sort(), for random and reversed inputs from 10 to 100k elements
+public final class ArraySorterBenchmark {
+	private static final int[] SIZES = { 10, 100, 1000, 10000, 100000 };
+	//every measurement sorts about this many elements in total
+	private static final int ELEMENTS_PER_MEASUREMENT = 500000;
+	//the old sort takes up to O(n^2) moves, which takes too long beyond this
+	private static final int MAX_OLD_SIZE = 10000;
+
+	private static final ArraySorter.Comparer<Integer> comparer = new ArraySorter.Comparer<Integer>() {
+		@Override
+		public int compare(Integer a, Integer b) {
+			return a.compareTo(b);
+		}
+	};
+
+	private static final Comparator<Integer> comparator = new Comparator<Integer>() {
+		@Override
+		public int compare(Integer a, Integer b) {
+			return a.compareTo(b);
+		}
+	};
+
+	//ArraySorter.sort() before it merged through an auxiliary buffer
+	private static <E> void oldSort(E[] elements, int i, int n, ArraySorter.Comparer<E> comparer) {
+		if (n > 1) {
+			E eA, eB;
+			final int endB = i + n;
+			if (n < 8) {
+				for (int x = i; x < endB; x++) {
+					int y = x;
+					while (y > i && comparer.compare(eA = elements[y - 1], eB = elements[y]) > 0) {
+						elements[y - 1] = eB;
+						elements[y--] = eA;
+					}
+				}
+				return;
+			}
+			final int m = n >> 1;
+			oldSort(elements, i, m, comparer);
+			oldSort(elements, i + m, n - m, comparer);
+			int iB = i + m;
+			eA = elements[i];
+			eB = elements[iB];
+			for (;;) {
+				if (comparer.compare(eA, eB) > 0) {
+					System.arraycopy(elements, i, elements, i + 1, iB - i);
+					elements[i] = eB;
+					if ((++iB) >= endB || (++i) >= iB) break;
+					eB = elements[iB];
+				} else {
+					if ((++i) >= iB) break;
+					eA = elements[i];
+				}
+			}
+		}
+	}
+
+	private static void sort(int method, Integer[] elements) {
+		switch (method) {
+		case 0:
+			oldSort(elements, 0, elements.length, comparer);
+			break;
+		case 1:
+			ArraySorter.sort(elements, 0, elements.length, comparer);
+			break;
+		default:
+			Arrays.sort(elements, comparator);
+			break;
+		}
+	}
+
+	//returns the time taken by each element, in nanoseconds
+	private static double measure(int method, Integer[] input, Integer[] expected) {
+		final Integer[] elements = new Integer[input.length];
+		final int rounds = ELEMENTS_PER_MEASUREMENT / input.length;
+		//let the JIT compile everything before measuring (and check the result)
+		for (int i = 0; i < rounds; i++) {
+			System.arraycopy(input, 0, elements, 0, input.length);
+			sort(method, elements);
+		}
+		assertArrayEquals(expected, elements);
+		long elapsed = 0;
+		for (int i = 0; i < rounds; i++) {
+			System.arraycopy(input, 0, elements, 0, input.length);
+			final long time = System.nanoTime();
+			sort(method, elements);
+			elapsed += System.nanoTime() - time;
+		}
+		return (double)elapsed / ((double)rounds * (double)input.length);
+	}
+
+	@Test
+	public void compareOldAndNew() {
+		final Random random = new Random(1234);
+		for (int n : SIZES) {
+			final Integer[] shuffled = new Integer[n], reversed = new Integer[n], expected = new Integer[n];
+			for (int i = 0; i < n; i++) {
+				shuffled[i] = random.nextInt(n);
+				reversed[i] = n - i;
+				expected[i] = i + 1;
+			}
+			final Integer[] shuffledExpected = shuffled.clone();
+			Arrays.sort(shuffledExpected);
+			final String oldRandom = ((n <= MAX_OLD_SIZE) ? String.format(Locale.US, "%.1f", measure(0, shuffled, shuffledExpected)) : "-");
+			final double newRandom = measure(1, shuffled, shuffledExpected);
+			final double javaRandom = measure(2, shuffled, shuffledExpected);
+			final String oldReversed = ((n <= MAX_OLD_SIZE) ? String.format(Locale.US, "%.1f", measure(0, reversed, expected)) : "-");
+			final double newReversed = measure(1, reversed, expected);
+			final double javaReversed = measure(2, reversed, expected);
+			Benchmark.report("sort " + n, String.format(Locale.US, "random: old %s, ArraySorter %.1f, Arrays.sort %.1f ns/element; reversed: old %s, ArraySorter %.1f, Arrays.sort %.1f ns/element",
+				oldRandom, newRandom, javaRandom, oldReversed, newReversed, javaReversed));
+		}
+	}
+}
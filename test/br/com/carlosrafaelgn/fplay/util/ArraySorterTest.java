@@ -0,0 +1,180 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ArraySorterTest {
+	//sizes around the insertion sort threshold (8), and around the smallest range that is
+	//split between threads (2 * 4096)
+	private static final int[] SIZES = { 0, 1, 2, 7, 8, 9, 16, 100, 1000, 8191, 8192, 8193, 50000, 100003 };
+	private static final int MAX_DEPTH = 3;
+
+	//the original position tells whether equal keys kept their order
+	private static final class Item {
+		public final int key, position;
+
+		public Item(int key, int position) {
+			this.key = key;
+			this.position = position;
+		}
+	}
+
+	private static final ArraySorter.Comparer<Item> comparer = new ArraySorter.Comparer<Item>() {
+		@Override
+		public int compare(Item a, Item b) {
+			return ((a.key < b.key) ? -1 : ((a.key == b.key) ? 0 : 1));
+		}
+	};
+
+	private static final Comparator<Item> reference = new Comparator<Item>() {
+		@Override
+		public int compare(Item a, Item b) {
+			return comparer.compare(a, b);
+		}
+	};
+
+	private static Item[] createItems(int n, int kind, Random random) {
+		final Item[] items = new Item[n];
+		for (int i = 0; i < n; i++) {
+			final int key;
+			switch (kind) {
+			case 0:
+				key = random.nextInt();
+				break;
+			case 1:
+				//lots of duplicates
+				key = random.nextInt(16);
+				break;
+			case 2:
+				key = i;
+				break;
+			case 3:
+				key = n - i;
+				break;
+			default:
+				key = 7;
+				break;
+			}
+			items[i] = new Item(key, i);
+		}
+		return items;
+	}
+
+	private static void checkSorted(Item[] items, int n, int depth) {
+		final Item[] expected = items.clone();
+		//Arrays.sort() is stable as well
+		Arrays.sort(expected, reference);
+		ArraySorter.sort(items, 0, n, depth, comparer);
+		for (int i = 0; i < n; i++)
+			assertSame("n = " + n + ", i = " + i, expected[i], items[i]);
+	}
+
+	@Test
+	public void sortsAndKeepsEqualElementsInOrder() {
+		final Random random = new Random(1234);
+		for (int n : SIZES) {
+			for (int kind = 0; kind < 5; kind++) {
+				checkSorted(createItems(n, kind, random), n, 0);
+				checkSorted(createItems(n, kind, random), n, MAX_DEPTH);
+			}
+		}
+	}
+
+	@Test
+	public void sortsOnlyTheGivenRange() {
+		final Random random = new Random(5678);
+		final Item[] items = createItems(20000, 1, random);
+		final Item[] original = items.clone();
+		ArraySorter.sort(items, 1000, 17000, MAX_DEPTH, comparer);
+		for (int i = 0; i < 1000; i++)
+			assertSame(original[i], items[i]);
+		for (int i = 18000; i < 20000; i++)
+			assertSame(original[i], items[i]);
+		final Item[] expected = Arrays.copyOfRange(original, 1000, 18000);
+		Arrays.sort(expected, reference);
+		assertArrayEquals(expected, Arrays.copyOfRange(items, 1000, 18000));
+	}
+
+	@Test
+	public void splitsLargeRangesAmongThreads() {
+		final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+		final ArraySorter.Comparer<Item> recorder = new ArraySorter.Comparer<Item>() {
+			@Override
+			public int compare(Item a, Item b) {
+				threads.add(Thread.currentThread().getName());
+				return comparer.compare(a, b);
+			}
+		};
+		final Item[] items = createItems(8191, 3, new Random(1));
+		ArraySorter.sort(items, 0, items.length, MAX_DEPTH, recorder);
+		//too small to be split
+		assertEquals(1, threads.size());
+		final Item[] large = createItems(65536, 3, new Random(1));
+		ArraySorter.sort(large, 0, large.length, MAX_DEPTH, recorder);
+		assertTrue(threads.contains("Array Sorter Thread"));
+		for (int i = 1; i < large.length; i++)
+			assertTrue(large[i - 1].key <= large[i].key);
+	}
+
+	@Test
+	public void rethrowsErrorsFromOtherThreads() {
+		final Item[] items = createItems(65536, 0, new Random(2));
+		try {
+			ArraySorter.sort(items, 0, items.length, MAX_DEPTH, new ArraySorter.Comparer<Item>() {
+				@Override
+				public int compare(Item a, Item b) {
+					if (Thread.currentThread().getName().equals("Array Sorter Thread"))
+						throw new IllegalStateException();
+					return comparer.compare(a, b);
+				}
+			});
+			fail();
+		} catch (IllegalStateException ex) {
+			//expected
+		}
+	}
+}
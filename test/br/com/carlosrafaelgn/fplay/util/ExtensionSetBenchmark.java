@@ -0,0 +1,114 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Locale;
+
+import br.com.carlosrafaelgn.fplay.Benchmark;
+
+import static org.junit.Assert.assertEquals;
+
+//Compares ExtensionSet with the HashSet<String> FileFetcher used to have, which allocated
+//two strings (substring() + toLowerCase()) for every name checked
+public final class ExtensionSetBenchmark {
+	private static final String[] TYPES = { ".3gp", ".3ga", ".mp4", ".m4a", ".aac", ".mp3", ".flac", ".mid", ".xmf", ".mxmf", ".rtttl", ".rtx", ".ogg", ".imy", ".wav", ".mkv" };
+	private static final int NAMES = 1024, ROUNDS = 200, WARMUP_ROUNDS = 200;
+
+	private static String[] createNames(boolean accepted) {
+		final String[] rejectedTypes = { ".jpg", ".txt", ".PNG", ".pdf", ".mp3.part", ".lrc", "", "." };
+		final String[] names = new String[NAMES];
+		for (int i = 0; i < NAMES; i++)
+			names[i] = "Artist - Song " + i + (accepted ? ((i & 1) == 0 ? TYPES[i & 15] : TYPES[i & 15].toUpperCase(Locale.US)) : rejectedTypes[i & 7]);
+		return names;
+	}
+
+	private static int matchOld(HashSet<String> set, String[] names) {
+		int count = 0;
+		for (String name : names) {
+			final int i = name.lastIndexOf('.');
+			if (i >= 0 && set.contains(name.substring(i).toLowerCase(Locale.US)))
+				count++;
+		}
+		return count;
+	}
+
+	private static int matchNew(ExtensionSet set, String[] names) {
+		int count = 0;
+		for (String name : names) {
+			if (set.containsExtensionOf(name))
+				count++;
+		}
+		return count;
+	}
+
+	//returns the amount of bytes allocated for each name
+	private static long measure(String name, HashSet<String> oldSet, ExtensionSet newSet, String[] names, int expectedCount) {
+		//let the JIT compile everything before measuring
+		for (int i = 0; i < WARMUP_ROUNDS; i++)
+			assertEquals(expectedCount, (oldSet != null) ? matchOld(oldSet, names) : matchNew(newSet, names));
+		final long bytes = Benchmark.allocatedBytes();
+		final long time = System.nanoTime();
+		int count = 0;
+		for (int i = 0; i < ROUNDS; i++)
+			count += ((oldSet != null) ? matchOld(oldSet, names) : matchNew(newSet, names));
+		final long elapsed = System.nanoTime() - time;
+		final long allocated = Benchmark.allocatedBytes() - bytes;
+		assertEquals(expectedCount * ROUNDS, count);
+		final long perName = ((bytes < 0) ? -1 : (allocated / (NAMES * ROUNDS)));
+		Benchmark.report(name, String.format(Locale.US, "%d bytes/name, %.1f ns/name", perName, (double)elapsed / (double)(NAMES * ROUNDS)));
+		return perName;
+	}
+
+	@Test
+	public void compareOldAndNew() {
+		final HashSet<String> oldSet = new HashSet<>();
+		final ExtensionSet newSet = new ExtensionSet();
+		for (String type : TYPES) {
+			oldSet.add(type);
+			newSet.add(type);
+		}
+		final String[] accepted = createNames(true), rejected = createNames(false);
+		measure("HashSet, accepted names", oldSet, null, accepted, NAMES);
+		measure("HashSet, rejected names", oldSet, null, rejected, 0);
+		final long acceptedBytes = measure("ExtensionSet, accepted names", null, newSet, accepted, NAMES);
+		final long rejectedBytes = measure("ExtensionSet, rejected names", null, newSet, rejected, 0);
+		//-1 means the JVM cannot count allocations
+		if (acceptedBytes >= 0)
+			assertEquals(0, acceptedBytes);
+		if (rejectedBytes >= 0)
+			assertEquals(0, rejectedBytes);
+	}
+}
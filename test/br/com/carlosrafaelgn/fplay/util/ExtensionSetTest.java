@@ -0,0 +1,135 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ExtensionSetTest {
+	@Test
+	public void matchesIgnoringCase() {
+		final ExtensionSet set = new ExtensionSet();
+		set.add(".mp3");
+		set.add("FLAC");
+		assertTrue(set.containsExtensionOf("Song.mp3"));
+		assertTrue(set.containsExtensionOf("Song.MP3"));
+		assertTrue(set.containsExtensionOf("Song.Flac"));
+		assertTrue(set.containsExtensionOf("a.b.flac"));
+		assertTrue(set.containsExtensionOf(".mp3"));
+		assertFalse(set.containsExtensionOf("Song.mp3.part"));
+		assertFalse(set.containsExtensionOf("Song.mp"));
+		assertFalse(set.containsExtensionOf("Song.mp33"));
+		assertFalse(set.containsExtensionOf("Song mp3"));
+		assertFalse(set.containsExtensionOf("Song."));
+		assertFalse(set.containsExtensionOf(""));
+	}
+
+	@Test
+	public void ignoresEmptyAndDuplicateExtensions() {
+		final ExtensionSet set = new ExtensionSet();
+		set.add(".ogg");
+		final int signature = set.getSignature();
+		set.add("");
+		set.add(".");
+		set.add("OGG");
+		set.add(".ogg");
+		assertEquals(signature, set.getSignature());
+		assertFalse(set.containsExtensionOf("Song."));
+	}
+
+	@Test
+	public void keepsMatchingAfterGrowing() {
+		//the table starts with 16 slots, and is kept at most 50% full
+		final ExtensionSet set = new ExtensionSet();
+		for (int i = 0; i < 100; i++) {
+			set.add(".x" + i);
+			for (int j = 0; j <= i; j++)
+				assertTrue(set.containsExtensionOf("Song.X" + j));
+			assertFalse(set.containsExtensionOf("Song.x" + (i + 1)));
+		}
+	}
+
+	@Test
+	public void matchesNonAsciiExtensions() {
+		final ExtensionSet set = new ExtensionSet();
+		set.add(".áudio");
+		assertTrue(set.containsExtensionOf("Song.ÁUDIO"));
+		assertFalse(set.containsExtensionOf("Song.audio"));
+	}
+
+	@Test
+	public void signatureDoesNotDependOnOrder() {
+		final ExtensionSet a = new ExtensionSet(), b = new ExtensionSet();
+		a.add(".mp3");
+		a.add(".ogg");
+		a.add(".wav");
+		b.add(".wav");
+		b.add(".mp3");
+		b.add(".ogg");
+		assertEquals(a.getSignature(), b.getSignature());
+		b.add(".mkv");
+		assertTrue(a.getSignature() != b.getSignature());
+	}
+
+	@Test
+	public void addsWhileOtherThreadsMatch() throws InterruptedException {
+		final ExtensionSet set = new ExtensionSet();
+		set.add(".mp3");
+		final boolean[] failed = new boolean[1];
+		final Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						if (!set.containsExtensionOf("Song.mp3")) {
+							failed[0] = true;
+							return;
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < 1000; i++)
+			set.add(".t" + i);
+		for (Thread thread : threads)
+			thread.join();
+		assertFalse(failed[0]);
+		for (int i = 0; i < 1000; i++)
+			assertTrue(set.containsExtensionOf("Song.t" + i));
+	}
+}
@@ -0,0 +1,232 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import br.com.carlosrafaelgn.fplay.Benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Compares SerializerOutputStream/SerializerInputStream with the buffered streams used before,
+//through which every int took four synchronized calls and every string its own byte[]. Each
+//song has the same layout written by Song.serialize() (4 strings + 4 ints).
+public final class SerializerBenchmark {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int SONGS = 50000, ROUNDS = 10, WARMUP_ROUNDS = 10;
+
+	private static final class Song {
+		public String path, title, artist, album;
+		public int track, lengthMS, year, flags;
+	}
+
+	//only counts the bytes, so that writing allocates nothing but what the codec itself does
+	private static final class NullOutputStream extends OutputStream {
+		public long length;
+
+		@Override
+		public void write(int b) {
+			length++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			length += len;
+		}
+	}
+
+	private static Song[] createSongs() {
+		final Song[] songs = new Song[SONGS];
+		for (int i = 0; i < SONGS; i++) {
+			final Song song = new Song();
+			//one in every 8 songs has non-ASCII metadata
+			final String suffix = (((i & 7) == 0) ? " ção 日本" : "");
+			song.artist = "Artist Number " + (i / 120) + suffix;
+			song.album = "Album Number " + (i / 12) + " (Remastered)";
+			song.path = "/storage/emulated/0/Music/" + song.artist + "/" + song.album + "/" + String.format(Locale.US, "%02d", (i % 12) + 1) + " - Song Number " + i + ".mp3";
+			song.title = "Song Number " + i + suffix;
+			song.track = (i % 12) + 1;
+			song.lengthMS = 120000 + (i % 240) * 1000;
+			song.year = 1970 + (i % 50);
+			songs[i] = song;
+		}
+		return songs;
+	}
+
+	private static void writeOldInt(OutputStream os, int value) throws IOException {
+		os.write(value);
+		os.write(value >>> 8);
+		os.write(value >>> 16);
+		os.write(value >>> 24);
+	}
+
+	private static void writeOldString(OutputStream os, String value) throws IOException {
+		final byte[] tmp = value.getBytes(UTF_8);
+		writeOldInt(os, tmp.length);
+		os.write(tmp);
+	}
+
+	private static int readOldInt(InputStream is) throws IOException {
+		return ((is.read() & 0xff) | ((is.read() & 0xff) << 8) | ((is.read() & 0xff) << 16) | ((is.read() & 0xff) << 24));
+	}
+
+	private static String readOldString(InputStream is) throws IOException {
+		final int len = readOldInt(is);
+		final byte[] tmp = new byte[len];
+		int read = 0;
+		while (read < len)
+			read += is.read(tmp, read, len - read);
+		return new String(tmp, 0, len, UTF_8);
+	}
+
+	private static void write(Song[] songs, boolean old, OutputStream os) throws IOException {
+		final BufferedOutputStream bs = (old ? new BufferedOutputStream(os, 4096) : new SerializerOutputStream(os, 4096));
+		for (Song song : songs) {
+			if (old) {
+				writeOldString(bs, song.path);
+				writeOldString(bs, song.title);
+				writeOldString(bs, song.artist);
+				writeOldString(bs, song.album);
+				writeOldInt(bs, song.track);
+				writeOldInt(bs, song.lengthMS);
+				writeOldInt(bs, song.year);
+				writeOldInt(bs, song.flags);
+			} else {
+				Serializer.serializeString(bs, song.path);
+				Serializer.serializeString(bs, song.title);
+				Serializer.serializeString(bs, song.artist);
+				Serializer.serializeString(bs, song.album);
+				Serializer.serializeInt(bs, song.track);
+				Serializer.serializeInt(bs, song.lengthMS);
+				Serializer.serializeInt(bs, song.year);
+				Serializer.serializeInt(bs, song.flags);
+			}
+		}
+		bs.flush();
+	}
+
+	private static byte[] write(Song[] songs, boolean old) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream(SONGS * 256);
+		write(songs, old, os);
+		return os.toByteArray();
+	}
+
+	private static Song[] read(byte[] data, boolean old) throws IOException {
+		final BufferedInputStream bs = (old ? new BufferedInputStream(new ByteArrayInputStream(data), 4096) : new SerializerInputStream(new ByteArrayInputStream(data), 4096));
+		final Song[] songs = new Song[SONGS];
+		for (int i = 0; i < SONGS; i++) {
+			final Song song = new Song();
+			if (old) {
+				song.path = readOldString(bs);
+				song.title = readOldString(bs);
+				song.artist = readOldString(bs);
+				song.album = readOldString(bs);
+				song.track = readOldInt(bs);
+				song.lengthMS = readOldInt(bs);
+				song.year = readOldInt(bs);
+				song.flags = readOldInt(bs);
+			} else {
+				song.path = Serializer.deserializeString(bs);
+				song.title = Serializer.deserializeString(bs);
+				song.artist = Serializer.deserializeString(bs);
+				song.album = Serializer.deserializeString(bs);
+				song.track = Serializer.deserializeInt(bs);
+				song.lengthMS = Serializer.deserializeInt(bs);
+				song.year = Serializer.deserializeInt(bs);
+				song.flags = Serializer.deserializeInt(bs);
+			}
+			songs[i] = song;
+		}
+		return songs;
+	}
+
+	//returns the amount of bytes allocated for each song
+	private static long measure(String name, Song[] songs, byte[] data, boolean old) throws IOException {
+		final NullOutputStream os = new NullOutputStream();
+		//let the JIT compile everything before measuring
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			if (data == null)
+				write(songs, old, os);
+			else
+				read(data, old);
+		}
+		os.length = 0;
+		final long bytes = Benchmark.allocatedBytes();
+		final long time = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			if (data == null) {
+				write(songs, old, os);
+			} else {
+				final Song[] result = read(data, old);
+				assertEquals(songs[SONGS - 1].title, result[SONGS - 1].title);
+			}
+		}
+		final long elapsed = System.nanoTime() - time;
+		final long allocated = Benchmark.allocatedBytes() - bytes;
+		final long perSong = ((bytes < 0) ? -1 : (allocated / (SONGS * ROUNDS)));
+		final double length = ((data == null) ? (double)os.length : ((double)data.length * ROUNDS));
+		Benchmark.report(name, String.format(Locale.US, "%d bytes/song, %.1f MB/s", perSong, (length * 1000.0) / ((double)elapsed * 1.048576)));
+		return perSong;
+	}
+
+	@Test
+	public void compareOldAndNew() throws IOException {
+		final Song[] songs = createSongs();
+		final byte[] data = write(songs, false);
+		//both formats must be identical
+		assertArrayEquals(write(songs, true), data);
+		final long oldWrite = measure("old streams, write", songs, null, true);
+		final long newWrite = measure("Serializer streams, write", songs, null, false);
+		final long oldRead = measure("old streams, read", songs, data, true);
+		final long newRead = measure("Serializer streams, read", songs, data, false);
+		//-1 means the JVM cannot count allocations
+		if (newWrite >= 0) {
+			//only the buffer of each stream is allocated, instead of one byte[] per string
+			assertTrue("old: " + oldWrite + ", new: " + newWrite, newWrite < oldWrite);
+			//the strings themselves are all that is allocated, instead of one byte[] per string
+			assertTrue("old: " + oldRead + ", new: " + newRead, newRead < oldRead);
+		}
+	}
+}
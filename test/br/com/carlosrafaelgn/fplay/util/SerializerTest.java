@@ -0,0 +1,154 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class SerializerTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static String repeat(String value, int count) {
+		final StringBuilder sb = new StringBuilder(value.length() * count);
+		for (int i = 0; i < count; i++)
+			sb.append(value);
+		return sb.toString();
+	}
+
+	private static String[] createStrings() {
+		final char[] ascii = new char[5000];
+		Arrays.fill(ascii, 'a');
+		return new String[] {
+			null,
+			"",
+			"Song Number 1.mp3",
+			"A\u00e7\u00e3o",
+			"\u65e5\u672c\u8a9e",
+			"\ud83c\udfb5 Music \ud834\udd1e",
+			//unpaired surrogates become '?', just like String.getBytes() does
+			"A\ud800B",
+			"A\udc00B",
+			"End\ud83c",
+			//longer than the buffers, so they cannot be decoded straight from them
+			new String(ascii),
+			"abc" + repeat("\u00e9\u65e5\ud83c\udfb5", 1500)
+		};
+	}
+
+	//what String.getBytes() produces, prefixed by the length
+	private static byte[] expectedBytes(String[] strings) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		for (String value : strings) {
+			if (value == null) {
+				Serializer.serializeInt(os, -1);
+			} else {
+				final byte[] bytes = value.getBytes(UTF_8);
+				Serializer.serializeInt(os, bytes.length);
+				os.write(bytes);
+			}
+		}
+		return os.toByteArray();
+	}
+
+	private static String expectedString(String value) {
+		return ((value == null) ? null : new String(value.getBytes(UTF_8), UTF_8));
+	}
+
+	@Test
+	public void stringsAreEncodedAsUTF8() throws IOException {
+		final String[] strings = createStrings();
+		final byte[] expected = expectedBytes(strings);
+		//SerializerOutputStream, with a tiny buffer, so most strings cross its boundaries
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final SerializerOutputStream ss = new SerializerOutputStream(os, 16);
+		for (String value : strings)
+			Serializer.serializeString(ss, value);
+		ss.flush();
+		assertArrayEquals(expected, os.toByteArray());
+		//any other OutputStream
+		os = new ByteArrayOutputStream();
+		for (String value : strings)
+			Serializer.serializeString(os, value);
+		assertArrayEquals(expected, os.toByteArray());
+	}
+
+	@Test
+	public void stringsAreDecodedFromUTF8() throws IOException {
+		final String[] strings = createStrings();
+		final byte[] data = expectedBytes(strings);
+		final InputStream[] streams = {
+			new SerializerInputStream(new ByteArrayInputStream(data), 16),
+			new SerializerInputStream(new ByteArrayInputStream(data), 65536),
+			new ByteArrayInputStream(data)
+		};
+		for (InputStream is : streams) {
+			for (String value : strings)
+				assertEquals(expectedString(value), Serializer.deserializeString(is));
+			assertEquals(-1, is.read());
+		}
+		int offset = 0;
+		for (String value : strings) {
+			assertEquals(expectedString(value), Serializer.deserializeString(data, offset));
+			final int length = Serializer.deserializeInt(data, offset);
+			offset += 4 + ((length > 0) ? length : 0);
+		}
+		assertEquals(data.length, offset);
+	}
+
+	@Test
+	public void intsRoundTrip() throws IOException {
+		final int[] values = { 0, 1, -1, 127, 128, -129, 0x7fffffff, 0x80000000, 0x12345678 };
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final SerializerOutputStream ss = new SerializerOutputStream(os, 16);
+		for (int value : values) {
+			Serializer.serializeInt(ss, value);
+			Serializer.serializeVarInt(ss, value);
+		}
+		ss.flush();
+		final SerializerInputStream is = new SerializerInputStream(new ByteArrayInputStream(os.toByteArray()), 16);
+		for (int value : values) {
+			assertEquals(value, Serializer.deserializeInt(is));
+			assertEquals(value, Serializer.deserializeVarInt(is));
+		}
+		assertEquals(-1, is.read());
+	}
+}
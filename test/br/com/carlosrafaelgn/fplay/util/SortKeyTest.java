@@ -0,0 +1,90 @@
+//
+// FPlayAndroid is distributed under the FreeBSD License
+//
+// Copyright (c) 2013-2014, Carlos Rafael Gimenes das Neves
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//
+// 1. Redistributions of source code must retain the above copyright notice, this
+//    list of conditions and the following disclaimer.
+// 2. Redistributions in binary form must reproduce the above copyright notice,
+//    this list of conditions and the following disclaimer in the documentation
+//    and/or other materials provided with the distribution.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+// ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+// WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+// DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+// ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+// (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+// LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+// ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+// (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+// SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+//
+// The views and conclusions contained in the software and documentation are those
+// of the authors and should not be interpreted as representing official policies,
+// either expressed or implied, of the FreeBSD Project.
+//
+// https://github.com/carlosrafaelgn/FPlayAndroid
+//
+package br.com.carlosrafaelgn.fplay.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class SortKeyTest {
+	//ASCII, Latin-1, Greek and Cyrillic letters, plus a few chars with unusual case mappings
+	//(surrogates are left out, as some JVMs fold supplementary code points as a whole)
+	private static final String CHARS = "aAbBzZ09 -_.\u0000\u007f\u00e9\u00c9\u00df\u00ff\u0178\u0130\u0131\u017f\u03c3\u03a3\u03c2\u0434\u0414\u1e9e\u2126\u03c9\u212a";
+
+	private static String randomString(Random random) {
+		final char[] chars = new char[random.nextInt(9)];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = CHARS.charAt(random.nextInt(CHARS.length()));
+		return new String(chars);
+	}
+
+	private static void assertSameOrder(String a, String b) {
+		final int expected = Integer.signum(a.compareToIgnoreCase(b));
+		assertEquals("\"" + a + "\" x \"" + b + "\"", expected, Integer.signum(new SortKey(a).compareTo(new SortKey(b))));
+	}
+
+	@Test
+	public void comparesLikeCompareToIgnoreCase() {
+		final String[] strings = { "", "a", "A", "ab", "aB", "abc", "abcd", "ABCD", "abcde", "abcdE", "abcdf", "ab\u0000", "ab\u0000c", "abc\u0000", "Z", "\u00e9", "\u00c9", "e\u0301", "\u03c3", "\u03a3", "\u03c2", "\u0130", "i", "I", "\u0131" };
+		for (String a : strings) {
+			for (String b : strings)
+				assertSameOrder(a, b);
+		}
+		final Random random = new Random(1234);
+		for (int i = 0; i < 100000; i++)
+			assertSameOrder(randomString(random), randomString(random));
+	}
+
+	@Test
+	public void sortsLikeCompareToIgnoreCase() {
+		final Random random = new Random(5678);
+		final String[] expected = new String[5000];
+		for (int i = 0; i < expected.length; i++)
+			expected[i] = randomString(random);
+		final String[] actual = expected.clone();
+		//both sorts are stable, so equal keys keep the same relative order
+		Arrays.sort(expected, String.CASE_INSENSITIVE_ORDER);
+		Arrays.sort(actual, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return new SortKey(a).compareTo(new SortKey(b));
+			}
+		});
+		assertArrayEquals(expected, actual);
+	}
+}